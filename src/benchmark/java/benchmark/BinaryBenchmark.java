@@ -0,0 +1,62 @@
+package benchmark;
+
+import domain.WalletEntity;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.BinaryConverter;
+import utils.JsonConverter;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary records against JSON: conversion speed of a wallet, sizes are logged on setup
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BinaryBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryBenchmark.class);
+
+    private WalletEntity walletEntity;
+    private String json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() {
+        walletEntity = Fixtures.walletEntity();
+        json = toJsonString();
+        binary = BinaryConverter.toBinary(walletEntity);
+
+        log.info("Wallet size: json {} bytes, binary {} bytes", json.getBytes(StandardCharsets.UTF_8).length,
+                binary.length);
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        StringWriter writer = new StringWriter();
+        JsonConverter.toJson(walletEntity, writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public WalletEntity fromJson() {
+        return JsonConverter.fromJson(json);
+    }
+
+    @Benchmark
+    public byte[] toBinary() {
+        return BinaryConverter.toBinary(walletEntity);
+    }
+
+    @Benchmark
+    public WalletEntity fromBinary() {
+        return BinaryConverter.walletFromBinary(binary);
+    }
+}
@@ -0,0 +1,153 @@
+package benchmark;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PrunedException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.SPVBlockStore;
+import org.bitcoinj.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+import utils.BlockStoreBuilder;
+import utils.CheckpointsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time until a new married wallet is synced to the head of a generated regtest chain: every block from genesis
+ * against the blocks after the newest checkpoint, checkpoints written by CheckpointsBuilder from the same chain.
+ *
+ * Regtest difficulty is checked every 10000 blocks walking back all of them, more than the 5000 headers SPVBlockStore
+ * and MemoryBlockStore keep, so the sync from genesis runs on a store that keeps every header. The sync from a checkpoint runs on an SPVBlockStore file, as SyncWallet does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CheckpointBenchmark {
+
+    @Param({"15000"})
+    public int blocks;
+
+    private List<Block> chain;
+    private byte[] checkpoints;
+    private Wallet wallet;
+    private File chainFile;
+
+    @Setup
+    public void setUp() throws BlockStoreException, PrunedException, IOException {
+        HeaderStore store = new HeaderStore(Fixtures.PARAMS);
+        BlockChain blockChain = new BlockChain(Fixtures.PARAMS, store);
+        chain = Fixtures.chain(blocks, new ECKey().toAddress(Fixtures.PARAMS));
+        for (Block block : chain) {
+            blockChain.add(block);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            CheckpointsBuilder.writeTextual(CheckpointsBuilder.collect(store), writer);
+        }
+        checkpoints = out.toByteArray();
+    }
+
+    @Setup(Level.Invocation)
+    public void newWallet() throws IOException {
+        /* keys created now, after every generated block: the newest checkpoint is used */
+        wallet = Fixtures.marriedWallet(10);
+        chainFile = File.createTempFile("checkpoint", ".spvchain");
+        chainFile.delete();
+        chainFile.deleteOnExit();
+    }
+
+    @Benchmark
+    public int fromGenesis() throws BlockStoreException, PrunedException {
+        HeaderStore store = new HeaderStore(Fixtures.PARAMS);
+        BlockStoreBuilder.resume(wallet, store);
+        BlockChain blockChain = new BlockChain(Fixtures.PARAMS, wallet, store);
+        for (Block block : chain) {
+            blockChain.add(block);
+        }
+
+        return wallet.getLastBlockSeenHeight();
+    }
+
+    @Benchmark
+    public int fromCheckpoint() throws BlockStoreException, PrunedException, IOException {
+        SPVBlockStore store = BlockStoreBuilder.createSPVStore(Fixtures.PARAMS, chainFile);
+        try {
+            BlockStoreBuilder.resume(wallet, store);
+            int height = BlockStoreBuilder.checkpoint(store, new ByteArrayInputStream(checkpoints),
+                    wallet.getEarliestKeyCreationTime());
+            BlockChain blockChain = new BlockChain(Fixtures.PARAMS, wallet, store);
+            for (Block block : chain.subList(height, chain.size())) {
+                blockChain.add(block);
+            }
+        } finally {
+            store.close();
+        }
+
+        return wallet.getLastBlockSeenHeight();
+    }
+
+    /**
+     * Every header in a map, none is dropped
+     */
+    private static class HeaderStore implements BlockStore {
+
+        private final NetworkParameters params;
+        private final Map<Sha256Hash, StoredBlock> blocks = new HashMap<>();
+        private StoredBlock chainHead;
+
+        HeaderStore(NetworkParameters params) {
+            this.params = params;
+            Block genesis = params.getGenesisBlock().cloneAsHeader();
+            chainHead = new StoredBlock(genesis, genesis.getWork(), 0);
+            put(chainHead);
+        }
+
+        @Override
+        public void put(StoredBlock block) {
+            blocks.put(block.getHeader().getHash(), block);
+        }
+
+        @Override
+        public StoredBlock get(Sha256Hash hash) {
+            return blocks.get(hash);
+        }
+
+        @Override
+        public StoredBlock getChainHead() {
+            return chainHead;
+        }
+
+        @Override
+        public void setChainHead(StoredBlock chainHead) {
+            this.chainHead = chainHead;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public NetworkParameters getParams() {
+            return params;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package benchmark;
+
+import domain.EncryptedData;
+import org.openjdk.jmh.annotations.*;
+import utils.encrypt.AESCBCUtils;
+import utils.encrypt.KeyCrypterBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AESCBCUtils encrypt and decrypt of an account key sized payload for several scrypt N
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CryptoBenchmark {
+
+    private static final String PASSWORD = "USER PASSWORD. Use strong passphrases!!!";
+
+    @Param({"1024", "4096", "16384"})
+    public long iterations;
+
+    private byte[] plain;
+    private EncryptedData encrypted;
+
+    @Setup
+    public void setUp() {
+        /* a serialized private account key is 78 bytes */
+        plain = new byte[78];
+        encrypted = AESCBCUtils.encrypt(plain, PASSWORD, iterations);
+    }
+
+    @Benchmark
+    public EncryptedData encrypt() {
+        return AESCBCUtils.encrypt(plain, PASSWORD, iterations);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return AESCBCUtils.decrypt(encrypted, PASSWORD);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public byte[] getSalt() {
+        return KeyCrypterBuilder.getSalt();
+    }
+}
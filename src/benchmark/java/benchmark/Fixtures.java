@@ -0,0 +1,131 @@
+package benchmark;
+
+import com.google.common.collect.Lists;
+import domain.DeterministicKeyChainEntity;
+import domain.EncryptedData;
+import domain.WalletEntity;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.MarriedKeyChain;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction;
+import utils.RegTestChainGenerator;
+import utils.encrypt.AESCBCUtils;
+import utils.encrypt.RandomSource;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Data shared by the benchmarks, built as CreateHDKeys and CreateMarriedWallet do
+ */
+class Fixtures {
+
+    static final NetworkParameters PARAMS = RegTestParams.get();
+    static final String PASSWORD = "USER PASSWORD. Use strong passphrases!!!";
+    static final long ITERATIONS = 16384;
+
+    /**
+     * A wallet entity with encrypted user key and backup key
+     */
+    static WalletEntity walletEntity() {
+        return new WalletEntity("Wallet User Name", keyChainEntity(), keyChainEntity());
+    }
+
+    static DeterministicKeyChainEntity keyChainEntity() {
+
+        DeterministicKeyChain chain = new DeterministicKeyChain(RandomSource.get(), 256, PASSWORD,
+                System.currentTimeMillis() / 1000);
+        DeterministicKey key = chain.getWatchingKey();
+
+        DeterministicKeyChainEntity entity = new DeterministicKeyChainEntity(key.serializePublic(PARAMS),
+                key.getCreationTimeSeconds());
+        List<EncryptedData> encrypted = AESCBCUtils.encrypt(
+                Arrays.asList(key.serializePrivate(PARAMS), chain.getSeed().getSecretBytes()), PASSWORD, ITERATIONS);
+        entity.setEncrypted(encrypted.get(0));
+        entity.setSeedEncrypted(encrypted.get(1));
+
+        return entity;
+    }
+
+    /**
+     * A 2 of 3 married wallet with some issued receive addresses
+     */
+    static Wallet marriedWallet(int issuedAddresses) {
+
+        Wallet wallet = new Wallet(new Context(PARAMS));
+
+        List<DeterministicKey> followingKeys = Lists.newArrayList();
+        for (int i = 0; i < 2; i++) {
+            DeterministicKeyChain keyChain = new DeterministicKeyChain(RandomSource.get());
+            followingKeys.add(DeterministicKey.deserializeB58(null, keyChain.getWatchingKey().serializePubB58(PARAMS), PARAMS));
+        }
+
+        MarriedKeyChain chain = MarriedKeyChain.builder()
+                .random(RandomSource.get())
+                .seedCreationTimeSecs(System.currentTimeMillis() / 1000)
+                .followingKeys(followingKeys)
+                .threshold(2)
+                .build();
+        wallet.addAndActivateHDChain(chain);
+
+        for (int i = 0; i < issuedAddresses; i++) {
+            wallet.freshReceiveAddress();
+        }
+
+        return wallet;
+    }
+
+    /**
+     * Add transactions confirmed one per block, paying to the current receive address of the wallet
+     */
+    static void addConfirmedTransactions(Wallet wallet, int count) {
+
+        Address address = wallet.currentReceiveAddress();
+        for (int i = 0; i < count; i++) {
+            Transaction tx = transaction(address, i);
+            tx.getConfidence().setAppearedAtChainHeight(i + 1);
+            tx.getConfidence().setDepthInBlocks(count - i);
+            wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, tx));
+        }
+        wallet.setLastBlockSeenHeight(count);
+    }
+
+    /**
+     * A transaction paying 1 BTC to address from an outpoint made up of seq
+     */
+    static Transaction transaction(Address address, long seq) {
+
+        Transaction tx = new Transaction(PARAMS);
+        byte[] previous = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            previous[i] = (byte) (seq >>> (8 * i));
+        }
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[0],
+                new TransactionOutPoint(PARAMS, 0, Sha256Hash.of(previous))));
+        tx.addOutput(Coin.COIN, address);
+        tx.getConfidence().setSource(TransactionConfidence.Source.NETWORK);
+
+        return tx;
+    }
+
+    /**
+     * A regtest chain of blocks after genesis paying to miner, every difficulty interval lasting exactly the target
+     * timespan so the difficulty is the same after a transition
+     */
+    static List<Block> chain(int blocks, Address miner) {
+        long spacing = PARAMS.getTargetTimespan() / PARAMS.getInterval();
+        return RegTestChainGenerator.generate(blocks, PARAMS.getGenesisBlock().getTimeSeconds() + spacing, miner);
+    }
+}
@@ -0,0 +1,77 @@
+package benchmark;
+
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+import utils.FsyncPolicy;
+import utils.WalletJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persisting one received transaction: a full Wallet.saveToFile against an append to the WalletJournal, for wallets
+ * with a growing history. Both are forced to disk.
+ *
+ * The transaction is received before each invocation, receivePending itself grows with the wallet and would hide
+ * the cost of saving.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JournalBenchmark {
+
+    @Param({"1000", "10000"})
+    public int transactions;
+
+    private Wallet wallet;
+    private File walletFile;
+    private WalletJournal journal;
+    private File journalWalletFile;
+    private long seq;
+
+    @Setup
+    public void setUp() throws IOException, UnreadableWalletException {
+        wallet = Fixtures.marriedWallet(10);
+        Fixtures.addConfirmedTransactions(wallet, transactions);
+        walletFile = File.createTempFile("history", ".wallet");
+        walletFile.deleteOnExit();
+        wallet.saveToFile(walletFile);
+
+        journalWalletFile = File.createTempFile("journaled", ".wallet");
+        journalWalletFile.deleteOnExit();
+        WalletJournal.journalFile(journalWalletFile).deleteOnExit();
+        wallet.saveToFile(journalWalletFile);
+        /* written by sync() only */
+        journal = WalletJournal.open(journalWalletFile, FsyncPolicy.FILE, 1, TimeUnit.HOURS);
+        seq = transactions;
+    }
+
+    @TearDown
+    public void tearDown() {
+        journal.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void receive() {
+        for (Wallet target : new Wallet[]{wallet, journal.getWallet()}) {
+            Transaction tx = Fixtures.transaction(target.currentReceiveAddress(), seq++);
+            target.receivePending(tx, null);
+        }
+    }
+
+    @Benchmark
+    public void saveToFile() throws IOException {
+        wallet.saveToFile(walletFile);
+    }
+
+    @Benchmark
+    public void journal() throws IOException {
+        journal.sync();
+    }
+}
@@ -0,0 +1,55 @@
+package benchmark;
+
+import domain.WalletEntity;
+import org.openjdk.jmh.annotations.*;
+import utils.FileUtils;
+import utils.JsonConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonConverter conversion of a wallet to and from JSON
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsonBenchmark {
+
+    private WalletEntity walletEntity;
+    private String json;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        walletEntity = Fixtures.walletEntity();
+        file = File.createTempFile("wallet", ".json");
+        file.deleteOnExit();
+
+        JsonConverter.toJson(walletEntity, file.getPath());
+        json = FileUtils.readFile(file.getPath(), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void toJson() throws IOException {
+        JsonConverter.toJson(walletEntity, file.getPath());
+    }
+
+    @Benchmark
+    public WalletEntity fromJson() {
+        return JsonConverter.fromJson(json);
+    }
+
+    /* only pub and created decoded, as listing and watch-only reads use them */
+    @Benchmark
+    public byte[] fromJsonLazy() {
+        WalletEntity lazy = JsonConverter.fromJsonLazy(new StringReader(json));
+        return lazy.getKey().getPub();
+    }
+}
@@ -0,0 +1,37 @@
+package benchmark;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.openjdk.jmh.annotations.*;
+import utils.encrypt.RandomSource;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DeterministicKeyChain creation as in CreateHDKeys.createKeys, without the encryption
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeyGenerationBenchmark {
+
+    private static final int ENTROPY_BITS = 256;
+    private static final String PASSWORD = "USER PASSWORD. Use strong passphrases!!!";
+
+    private final NetworkParameters params = RegTestParams.get();
+
+    @Benchmark
+    public byte[] createKeyChain() {
+
+        DeterministicKeyChain chain = new DeterministicKeyChain(RandomSource.get(), ENTROPY_BITS, PASSWORD,
+                System.currentTimeMillis() / 1000);
+        DeterministicKey key = chain.getWatchingKey();
+
+        return key.serializePrivate(params);
+    }
+}
@@ -0,0 +1,107 @@
+package benchmark;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.PeerGroup;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+import utils.RegTestChainGenerator;
+import utils.RegTestPeer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A married wallet synced by a PeerGroup from a RegTestPeer on localhost, over a generated chain with transactions
+ * paying its P2SH addresses: syncs per second, with the blocks and wallet transactions synced during the measurement
+ * as the blocks and transactions counters of the result.
+ *
+ * The chain ends now and starts less than a week before the keys of the wallet, so every block is downloaded
+ * filtered as for a new wallet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PeerSyncBenchmark {
+
+    private static final int ADDRESSES = 20;
+
+    @Param({"2000"})
+    public int blocks;
+
+    @Param({"200", "2000"})
+    public int transactions;
+
+    private Wallet wallet;
+    private RegTestPeer peer;
+    private PeerGroup peerGroup;
+
+    /**
+     * Blocks and transactions synced during the measurement
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Synced {
+        public long blocks;
+        public long transactions;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        wallet = Fixtures.marriedWallet(0);
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses.add(wallet.freshReceiveAddress());
+        }
+
+        Address miner = new ECKey().toAddress(Fixtures.PARAMS);
+        List<Block> chain = RegTestChainGenerator.generate(blocks, RegTestChainGenerator.startTime(blocks), miner,
+                addresses, transactions);
+        peer = new RegTestPeer(chain, miner, 0);
+        peer.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        peer.close();
+    }
+
+    /**
+     * A new block store and peer group, the wallet emptied; connected before the measurement
+     */
+    @Setup(Level.Invocation)
+    public void connect() throws BlockStoreException {
+        wallet.reset();
+        BlockChain chain = new BlockChain(Fixtures.PARAMS, wallet, new MemoryBlockStore(Fixtures.PARAMS));
+        peerGroup = new PeerGroup(Fixtures.PARAMS, chain);
+        peerGroup.addWallet(wallet);
+        peerGroup.addAddress(new PeerAddress(InetAddress.getLoopbackAddress(), peer.getPort()));
+        peerGroup.setMaxConnections(1);
+        peerGroup.start();
+    }
+
+    @TearDown(Level.Invocation)
+    public void disconnect() {
+        peerGroup.removeWallet(wallet);
+        peerGroup.stop();
+    }
+
+    @Benchmark
+    public void sync(Synced synced) {
+        peerGroup.downloadBlockChain();
+
+        synced.blocks += wallet.getLastBlockSeenHeight();
+        synced.transactions += wallet.getTransactions(false).size();
+    }
+}
@@ -0,0 +1,90 @@
+package benchmark;
+
+import com.zaxxer.hikari.HikariDataSource;
+import domain.DeterministicKeyChainEntity;
+import domain.WalletEntity;
+import org.openjdk.jmh.annotations.*;
+import repository.DataSourceBuilder;
+import repository.WalletRepository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WalletRepository against embedded H2: bulk insert and point lookups, scored per wallet
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    private static final int SAVED = 10000;
+    private static final int BULK = 1000;
+
+    private HikariDataSource dataSource;
+    private WalletRepository repository;
+    private DeterministicKeyChainEntity template;
+    private long next;
+
+    @Setup
+    public void setUp() throws SQLException, IOException {
+        dataSource = DataSourceBuilder.createH2InMemory("benchmark");
+        repository = new WalletRepository(dataSource);
+        repository.createSchema();
+
+        /* one real encrypted key, every wallet gets its own pub */
+        template = Fixtures.keyChainEntity();
+        repository.saveAll(wallets(SAVED));
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK)
+    public void saveAll() throws SQLException {
+        repository.saveAll(wallets(BULK));
+    }
+
+    @Benchmark
+    public WalletEntity findByName() throws SQLException {
+        return repository.findByName(name(ThreadLocalRandom.current().nextInt(SAVED)));
+    }
+
+    @Benchmark
+    public DeterministicKeyChainEntity findKeyByPub() throws SQLException {
+        return repository.findKeyByPub(pub(ThreadLocalRandom.current().nextInt(SAVED)));
+    }
+
+    private List<WalletEntity> wallets(int count) {
+        List<WalletEntity> wallets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long index = next++;
+            wallets.add(new WalletEntity(name(index),
+                    new DeterministicKeyChainEntity(pub(index), template.getCreated(), template.getEncrypted(),
+                            template.getSeedEncrypted()),
+                    new DeterministicKeyChainEntity(pub(-index - 1), template.getCreated())));
+        }
+        return wallets;
+    }
+
+    private static String name(long index) {
+        return "Wallet " + index;
+    }
+
+    private byte[] pub(long index) {
+        byte[] pub = template.getPub().clone();
+        ByteBuffer.wrap(pub).putLong(pub.length - 8, index);
+        return pub;
+    }
+}
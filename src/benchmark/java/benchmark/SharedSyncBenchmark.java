@@ -0,0 +1,98 @@
+package benchmark;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.PrunedException;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+import utils.SharedSyncEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncing N married wallets over a generated regtest chain: one SharedSyncEngine chain for all of them against a
+ * BlockChain and block store per wallet, as PeerGroupBuilder.sincronize does
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SharedSyncBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int wallets;
+
+    @Param({"2000"})
+    public int blocks;
+
+    private List<Block> chain;
+    private final List<Wallet> walletList = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        chain = Fixtures.chain(blocks, new ECKey().toAddress(Fixtures.PARAMS));
+        for (int i = 0; i < wallets; i++) {
+            walletList.add(Fixtures.marriedWallet(10));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void resetWallets() {
+        for (Wallet wallet : walletList) {
+            wallet.reset();
+        }
+    }
+
+    /**
+     * An engine with every wallet added, made outside of the measurement
+     */
+    @State(Scope.Thread)
+    public static class Engine {
+
+        SharedSyncEngine engine;
+
+        @Setup(Level.Invocation)
+        public void addWallets(SharedSyncBenchmark benchmark) throws BlockStoreException {
+            engine = new SharedSyncEngine(Fixtures.PARAMS, new MemoryBlockStore(Fixtures.PARAMS));
+            for (Wallet wallet : benchmark.walletList) {
+                engine.addWallet(wallet);
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            engine.close();
+        }
+    }
+
+    @Benchmark
+    public int shared(Engine engine) throws BlockStoreException, PrunedException {
+        BlockChain blockChain = engine.engine.getChain();
+        for (Block block : chain) {
+            blockChain.add(block);
+        }
+
+        return blockChain.getBestChainHeight();
+    }
+
+    @Benchmark
+    public int chainPerWallet() throws BlockStoreException, PrunedException {
+        int height = 0;
+        for (Wallet wallet : walletList) {
+            BlockChain blockChain = new BlockChain(Fixtures.PARAMS, wallet, new MemoryBlockStore(Fixtures.PARAMS));
+            for (Block block : chain) {
+                blockChain.add(block);
+            }
+            height = blockChain.getBestChainHeight();
+        }
+
+        return height;
+    }
+}
@@ -0,0 +1,54 @@
+package benchmark;
+
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+import utils.FsyncPolicy;
+import utils.WalletJournal;
+import utils.WalletSummary;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time until a married wallet with a large history can answer its balance: the WalletSummary against a full
+ * Wallet.loadFromFile
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StartupBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int transactions;
+
+    private File walletFile;
+
+    @Setup
+    public void setUp() throws IOException, UnreadableWalletException {
+        Wallet wallet = Fixtures.marriedWallet(10);
+        Fixtures.addConfirmedTransactions(wallet, transactions);
+        walletFile = File.createTempFile("startup", ".wallet");
+        walletFile.deleteOnExit();
+        WalletJournal.journalFile(walletFile).deleteOnExit();
+        WalletSummary.summaryFile(walletFile).deleteOnExit();
+        wallet.saveToFile(walletFile);
+
+        /* opening compacts the untagged wallet and closing writes the summary */
+        WalletJournal.open(walletFile, FsyncPolicy.NONE, 0, TimeUnit.MILLISECONDS).close();
+    }
+
+    @Benchmark
+    public long summary() throws IOException {
+        return WalletSummary.read(walletFile).getBalance().value;
+    }
+
+    @Benchmark
+    public long loadFromFile() throws UnreadableWalletException {
+        return Wallet.loadFromFile(walletFile).getBalance().value;
+    }
+}
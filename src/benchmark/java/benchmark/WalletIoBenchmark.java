@@ -0,0 +1,46 @@
+package benchmark;
+
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wallet.saveToFile and loadFromFile of married wallets with a growing number of issued addresses
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WalletIoBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int issuedAddresses;
+
+    private Wallet wallet;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        wallet = Fixtures.marriedWallet(issuedAddresses);
+        file = File.createTempFile("married", ".wallet");
+        file.deleteOnExit();
+
+        wallet.saveToFile(file);
+    }
+
+    @Benchmark
+    public void saveToFile() throws IOException {
+        wallet.saveToFile(file);
+    }
+
+    @Benchmark
+    public Wallet loadFromFile() throws UnreadableWalletException {
+        return Wallet.loadFromFile(file);
+    }
+}
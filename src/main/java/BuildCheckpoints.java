@@ -0,0 +1,57 @@
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.SPVBlockStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.AtomicFileWriter;
+import utils.CheckpointsBuilder;
+import utils.FileUtils;
+import utils.FsyncPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes a checkpoints file from the headers of a local SPV block store, so new stores start from the newest
+ * checkpoint before the keys of a wallet instead of from genesis.
+ *
+ * usage: java BuildCheckpoints [SPV chain file] [checkpoints file]
+ */
+public class BuildCheckpoints {
+
+    private static final Logger log = LoggerFactory.getLogger(BuildCheckpoints.class);
+
+    public static final String CHECKPOINTS_FILE = "wallets/checkpoints.txt";
+
+    public static void main(String[] args) throws BlockStoreException, IOException {
+
+        String chainFile = args.length > 0 ? args[0] : "wallets/" + CreateMarriedWallet.WALLET_FILENAME + ".spvchain";
+        String checkpointsFile = args.length > 1 ? args[1] : CHECKPOINTS_FILE;
+
+        NetworkParameters params = RegTestParams.get();
+        Context.propagate(new Context(params));
+
+        SPVBlockStore store = new SPVBlockStore(params, new File(chainFile));
+        try {
+            List<StoredBlock> checkpoints = CheckpointsBuilder.collect(store);
+            if (checkpoints.isEmpty()) {
+                log.error("No block at a difficulty transition in {}, head at height {}, every {} blocks",
+                        chainFile, store.getChainHead().getHeight(), params.getInterval());
+                System.exit(-1);
+            }
+
+            try (AtomicFileWriter writer = FileUtils.newAtomicWriter(checkpointsFile, FsyncPolicy.FILE)) {
+                CheckpointsBuilder.writeTextual(checkpoints, writer);
+                writer.commit();
+            }
+            log.info("{} checkpoints written to {}, newest at height {}", checkpoints.size(), checkpointsFile,
+                    checkpoints.get(checkpoints.size() - 1).getHeight());
+        } finally {
+            store.close();
+        }
+    }
+}
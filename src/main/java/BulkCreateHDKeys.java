@@ -0,0 +1,104 @@
+import domain.DeterministicKeyChainEntity;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.RegTestParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.JsonConverter;
+import utils.NdjsonFileSink;
+import utils.encrypt.KdfParameters;
+
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk provisioning of wallets: creates the server, user and backup keys of every wallet as CreateHDKeys does,
+ * on a bounded pool of threads, and appends each wallet as one line to a NDJSON file.
+ *
+ * Only a fixed window of wallets is in flight, so memory does not depend on the number of wallets,
+ * and wallets are written in order, so an interrupted run resumes from the last complete line of the file.
+ *
+ * usage: java BulkCreateHDKeys [number of wallets] [file] [threads]
+ */
+public class BulkCreateHDKeys {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkCreateHDKeys.class);
+
+    public static final String WALLETS_NDJSON = "wallets.ndjson";
+    /* wallets in flight per thread */
+    private static final int WINDOW_PER_THREAD = 2;
+    private static final int SYNC_EVERY = 100;
+    private static final int REPORT_EVERY = 1000;
+    private static final KdfParameters KDF_PARAMETERS = KdfParameters.of(CreateHDKeys.ITERATIONS);
+
+    public static void main(String[] args) throws Exception {
+
+        long total = args.length > 0 ? Long.parseLong(args[0]) : 10000;
+        String fileName = args.length > 1 ? args[1] : WALLETS_NDJSON;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        NetworkParameters params = RegTestParams.get();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Future<String>> window = new ArrayDeque<>(threads * WINDOW_PER_THREAD);
+
+        try (NdjsonFileSink sink = new NdjsonFileSink(Paths.get(fileName), SYNC_EVERY)) {
+
+            long next = sink.getCount();
+            if (next > 0) {
+                log.info("Resuming from wallet {} of {}", next, total);
+            }
+
+            long start = System.nanoTime();
+            long created = 0;
+
+            while (next < total || !window.isEmpty()) {
+
+                /* keep the window full */
+                while (next < total && window.size() < threads * WINDOW_PER_THREAD) {
+                    final long index = next++;
+                    window.add(executor.submit(() -> provision(params, index)));
+                }
+
+                /* write in order */
+                sink.append(window.poll().get());
+
+                if (++created % REPORT_EVERY == 0) {
+                    report(created, start, threads);
+                }
+            }
+
+            report(created, start, threads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Create the keys of one wallet as a NDJSON line
+     *
+     * @param params
+     * @param index
+     * @return
+     */
+    private static String provision(NetworkParameters params, long index) {
+
+        DeterministicKeyChainEntity server = CreateHDKeys.newKeys(params, CreateHDKeys.SERVER_PASSWORD, KDF_PARAMETERS);
+        DeterministicKeyChainEntity user = CreateHDKeys.newKeys(params, CreateHDKeys.USER_PASSWORD, KDF_PARAMETERS);
+        DeterministicKeyChainEntity backup = CreateHDKeys.newKeys(params, CreateHDKeys.USER_PASSWORD, KDF_PARAMETERS);
+
+        return JsonConverter.toJsonLine(CreateHDKeys.WALLET_NAME + " " + index, server, user, backup);
+    }
+
+    private static void report(long created, long start, int threads) {
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double rate = seconds > 0 ? created / seconds : 0;
+
+        log.info("{} wallets in {} s: {} wallets/sec, {} wallets/sec per core", created,
+                String.format("%.1f", seconds), String.format("%.2f", rate), String.format("%.2f", rate / threads));
+    }
+}
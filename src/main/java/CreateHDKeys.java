@@ -5,20 +5,25 @@ import domain.EncryptedData;
 import domain.WalletEntity;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.crypto.DeterministicKey;
-import org.bitcoinj.crypto.MnemonicException;
 import org.bitcoinj.params.RegTestParams;
 import org.bitcoinj.wallet.DeterministicKeyChain;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.FileUtils;
+import utils.GroupCommitWriter;
 import utils.JsonConverter;
 import utils.encrypt.AESCBCUtils;
+import utils.encrypt.KdfCalibrator;
+import utils.encrypt.KdfParameters;
+import utils.encrypt.RandomSource;
 
-import java.io.IOException;
 import java.nio.charset.Charset;
-import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
 
 /**
  * A Sample to create Hierarchical Deterministic Keys
@@ -35,6 +40,11 @@ public class CreateHDKeys {
     public static final String USER_PASSWORD = "USER PASSWORD. Use strong passphrases!!!";
     public static final String SERVER_PASSWORD = "SERVER PASSWORD. Use strong passphrases!!!";
     public static final String WALLET_JSON = "wallet.json";
+    public static final String CALIBRATE = "calibrate";
+    public static final long KDF_TARGET_MILLIS = 250;
+    public static final long KDF_MEMORY_CEILING = 64 * 1024 * 1024;
+    private static final int KEY_FILES = 4;
+    private static final long GROUP_COMMIT_DELAY_MILLIS = 10;
 
     public static void main(String[] args) throws Exception {
 
@@ -45,13 +55,26 @@ public class CreateHDKeys {
         /* test LAN Bitcoin Network */
         NetworkParameters params = RegTestParams.get();
 
-        createKeys(params, "server.json", SERVER_PASSWORD, ITERATIONS);
-        DeterministicKeyChainEntity userDeterministicKeyChainEntity = createKeys(params, "user.json", USER_PASSWORD, ITERATIONS);
-        DeterministicKeyChainEntity backupDeterministicKeyChainEntity = createKeys(params, "backup.json", USER_PASSWORD, ITERATIONS);
+        /* scrypt parameters: fixed iterations or calibrated for this machine with "calibrate" argument */
+        KdfParameters kdfParameters = args.length > 0 && CALIBRATE.equals(args[0])
+                ? KdfCalibrator.calibrate(KDF_TARGET_MILLIS, KDF_MEMORY_CEILING)
+                : KdfParameters.of(ITERATIONS);
+
+        DeterministicKeyChainEntity serverDeterministicKeyChainEntity = newKeys(params, SERVER_PASSWORD, kdfParameters);
+        DeterministicKeyChainEntity userDeterministicKeyChainEntity = newKeys(params, USER_PASSWORD, kdfParameters);
+        DeterministicKeyChainEntity backupDeterministicKeyChainEntity = newKeys(params, USER_PASSWORD, kdfParameters);
 
         WalletEntity walletEntity = new WalletEntity(WALLET_NAME, userDeterministicKeyChainEntity, backupDeterministicKeyChainEntity);
 
-        JsonConverter.toJson(walletEntity, WALLET_JSON);
+        /* store keys info with encrypted data, each file replaced atomically and all four forced to disk in one group
+           commit, a crash can leave some files new and others old */
+        try (GroupCommitWriter writer = new GroupCommitWriter(FileUtils.DEFAULT_FSYNC_POLICY, KEY_FILES,
+                GROUP_COMMIT_DELAY_MILLIS)) {
+            writeJson(writer, "server.json", JsonConverter.toJson(serverDeterministicKeyChainEntity, true));
+            writeJson(writer, "user.json", JsonConverter.toJson(userDeterministicKeyChainEntity, true));
+            writeJson(writer, "backup.json", JsonConverter.toJson(backupDeterministicKeyChainEntity, true));
+            writeJson(writer, WALLET_JSON, JsonConverter.toJson(walletEntity));
+        }
 
         JsonParser parser = new JsonParser();
         JsonObject json = parser.parse(FileUtils.readFile("backup.json", Charset.defaultCharset())).getAsJsonObject();
@@ -69,21 +92,27 @@ public class CreateHDKeys {
     }
 
     /**
-     * Create private keys and ciphered with the parameter password
+     * Queue a JSON file, the writer reports errors when it is closed
+     * @param writer
+     * @param fileName
+     * @param json
+     */
+    private static void writeJson(GroupCommitWriter writer, String fileName, String json) {
+
+        writer.submit(Paths.get(fileName), json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Create private keys ciphered with the parameter password without storing them
      * @param params
-     * @param keyFileName
      * @param password
-     * @param iterations
+     * @param kdfParameters
      * @return
-     * @throws NoSuchAlgorithmException
-     * @throws IOException
-     * @throws MnemonicException.MnemonicLengthException
      */
-    private static DeterministicKeyChainEntity createKeys(NetworkParameters params, String keyFileName, String password, long iterations) throws NoSuchAlgorithmException, IOException, MnemonicException.MnemonicLengthException {
+    static DeterministicKeyChainEntity newKeys(NetworkParameters params, String password, KdfParameters kdfParameters) {
 
-        // TODO change iv and salt
-        //LinuxSecureRandom s = new LinuxSecureRandom();
-        SecureRandom secureRandom = new SecureRandom();
+        /* random of this thread, reseeded from the OS */
+        SecureRandom secureRandom = RandomSource.get();
 
         // Method 1 - Calling nextBytes method to generate Random Bytes
         //byte[] bytes = new byte[512];
@@ -91,7 +120,7 @@ public class CreateHDKeys {
 
         /* create user key */
         // NOTE: This does not work in Android. Android needs MnemonicCode.INSTANCE = new MnemonicCode();
-        DeterministicKeyChain chain = new DeterministicKeyChain(secureRandom, ENTROPY_BITS, password, Calendar.getInstance().getTimeInMillis()/100);
+        DeterministicKeyChain chain = new DeterministicKeyChain(secureRandom, ENTROPY_BITS, password, Calendar.getInstance().getTimeInMillis()/1000);
         //DeterministicKeyChain chain = new DeterministicKeyChain(secureRandom, ENTROPY_BITS);
 
         /**
@@ -115,16 +144,11 @@ public class CreateHDKeys {
         DeterministicKeyChainEntity deterministicKeyChainEntity =
                 new DeterministicKeyChainEntity(key.serializePublic(params), key.getCreationTimeSeconds());
 
-        /* encrypt key with custom library */
-        EncryptedData encryptedData = AESCBCUtils.encrypt(key.serializePrivate(params), password, iterations);
-        deterministicKeyChainEntity.setEncrypted(encryptedData);
-
-        /* encrypt seed */
-        EncryptedData seedAsEncryptedData = AESCBCUtils.encrypt(chain.getSeed().getSecretBytes(), password, iterations);
-        deterministicKeyChainEntity.setSeedEncrypted(seedAsEncryptedData);
-
-        /* store keys info with encrypted data */
-        JsonConverter.toJson(keyFileName, deterministicKeyChainEntity, true);
+        /* encrypt key and seed with custom library, sharing one key derivation */
+        List<EncryptedData> encrypted = AESCBCUtils.encrypt(
+                Arrays.asList(key.serializePrivate(params), chain.getSeed().getSecretBytes()), password, kdfParameters);
+        deterministicKeyChainEntity.setEncrypted(encrypted.get(0));
+        deterministicKeyChainEntity.setSeedEncrypted(encrypted.get(1));
 
         return deterministicKeyChainEntity;
     }
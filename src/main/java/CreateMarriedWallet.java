@@ -13,10 +13,10 @@ import org.bitcoinj.wallet.Wallet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.KeyChainTransactionSigner;
+import utils.encrypt.RandomSource;
 
 import java.io.File;
 import java.io.IOException;
-import java.security.SecureRandom;
 import java.util.Date;
 import java.util.List;
 
@@ -30,7 +30,6 @@ public class CreateMarriedWallet {
     public static final String WALLET_FILENAME = "married-sample";
     private static final File FILE_WALLET = new File("wallets", WALLET_FILENAME + ".wallet");
     private static final CharSequence PASSWORD1 = "my helicopter contains eels. Use more strong passphrases!!";
-    private static final SecureRandom secureRandom = new SecureRandom();
     public static final int ENTROPY_BITS = 256;
 
     private static Wallet wallet;
@@ -67,7 +66,7 @@ public class CreateMarriedWallet {
      * @throws BlockStoreException
      */
     private static void createMarriedWallet(int threshold, int numKeys, boolean addSigners) throws BlockStoreException, IOException, UnreadableWalletException {
-        final DeterministicKeyChain keyChainToWatch = new DeterministicKeyChain(secureRandom, 256, PASSWORD1.toString(), new Date().getTime()/100);
+        final DeterministicKeyChain keyChainToWatch = new DeterministicKeyChain(RandomSource.get(), 256, PASSWORD1.toString(), new Date().getTime()/1000);
         DeterministicSeed seed = keyChainToWatch.getSeed();
         log.info("Seed from key chain to watch is encrpyted?: {}",  seed.isEncrypted());
 
@@ -105,7 +104,7 @@ public class CreateMarriedWallet {
 
         List<DeterministicKey> followingKeys = Lists.newArrayList();
         for (int i = 0; i < numKeys - 1; i++) {
-            final DeterministicKeyChain keyChain = new DeterministicKeyChain(secureRandom, 256, PASSWORD1.toString(), new Date().getTime()/100);
+            final DeterministicKeyChain keyChain = new DeterministicKeyChain(RandomSource.get(), 256, PASSWORD1.toString(), new Date().getTime()/1000);
 
             log.debug("New Deterministic key chain seed is encrpyted?: {}", keyChain.getSeed().isEncrypted());
 
@@ -132,7 +131,7 @@ public class CreateMarriedWallet {
 
         List<DeterministicKey> followingKeys = Lists.newArrayList();
         for (int i = 0; i < numKeys - 1; i++) {
-            final DeterministicKeyChain keyChain = new DeterministicKeyChain(secureRandom, 256, PASSWORD1.toString(), new Date().getTime()/100);
+            final DeterministicKeyChain keyChain = new DeterministicKeyChain(RandomSource.get(), 256, PASSWORD1.toString(), new Date().getTime()/1000);
 
             log.debug("New Deterministic key chain seed is encrpyted?: {}", keyChain.getSeed().isEncrypted());
 
@@ -0,0 +1,73 @@
+import domain.DeterministicKeyChainEntity;
+import domain.WalletEntity;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.RegTestParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.FileUtils;
+import utils.JsonConverter;
+import utils.WatchOnlyAddressDeriver;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Derives the 2 of 3 multisig deposit addresses of the wallet created by CreateHDKeys using only the public
+ * account keys of server, user and backup, and writes them as "index,address,redeemScript" lines.
+ *
+ * usage: java DeriveWatchOnlyAddresses [from] [to] [file]
+ */
+public class DeriveWatchOnlyAddresses {
+
+    private static final Logger log = LoggerFactory.getLogger(DeriveWatchOnlyAddresses.class);
+
+    public static final int THRESHOLD = 2;
+    public static final String ADDRESSES_CSV = "addresses.csv";
+
+    public static void main(String[] args) throws IOException {
+
+        int from = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int to = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        String fileName = args.length > 2 ? args[2] : ADDRESSES_CSV;
+
+        NetworkParameters params = RegTestParams.get();
+
+        /* public account keys only */
+        DeterministicKeyChainEntity server;
+        try (Reader reader = FileUtils.newReader("server.json")) {
+            server = JsonConverter.keyFromJsonLazy(reader);
+        }
+        WalletEntity walletEntity;
+        try (Reader reader = FileUtils.newReader(CreateHDKeys.WALLET_JSON)) {
+            walletEntity = JsonConverter.fromJsonLazy(reader);
+        }
+
+        WatchOnlyAddressDeriver deriver = new WatchOnlyAddressDeriver(params, Arrays.asList(server.getPub(),
+                walletEntity.getKey().getPub(), walletEntity.getBackup().getPub()), THRESHOLD);
+
+        long start = System.nanoTime();
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            deriver.derive(from, to, (index, address, redeemScript) -> {
+                String line = index + "," + address + "," + Utils.HEX.encode(redeemScript.getProgram()) + "\n";
+                synchronized (writer) {
+                    try {
+                        writer.write(line);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.info("{} addresses in {} s: {} addresses/sec", to - from, String.format("%.1f", seconds),
+                String.format("%.0f", (to - from) / seconds));
+    }
+}
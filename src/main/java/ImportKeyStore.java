@@ -0,0 +1,64 @@
+import domain.WalletEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.FileUtils;
+import utils.JsonConverter;
+import utils.keystore.KeyStoreRecord;
+import utils.keystore.MappedKeyStore;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Imports the wallets provisioned by BulkCreateHDKeys into a MappedKeyStore, their server, user and backup keys with
+ * all their encrypted data, and looks up one of them, as a signing service finds the encrypted server key of a
+ * customer without reading its JSON.
+ *
+ * usage: java ImportKeyStore [NDJSON file] [keystore file] [expected wallets]
+ */
+public class ImportKeyStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ImportKeyStore.class);
+
+    public static final String KEYSTORE = "wallets.keystore";
+    private static final int REPORT_EVERY = 100000;
+
+    public static void main(String[] args) throws IOException {
+
+        String ndjson = args.length > 0 ? args[0] : BulkCreateHDKeys.WALLETS_NDJSON;
+        String fileName = args.length > 1 ? args[1] : KEYSTORE;
+        long expected = args.length > 2 ? Long.parseLong(args[2]) : 1000000;
+
+        try (MappedKeyStore keyStore = new MappedKeyStore(new File(fileName), expected);
+             JsonConverter.WalletIterator wallets = JsonConverter.fromNdjson(FileUtils.newReader(ndjson))) {
+
+            long start = System.nanoTime();
+            long imported = 0;
+            String lastName = null;
+
+            while (wallets.hasNext()) {
+                WalletEntity walletEntity = wallets.next();
+                if (keyStore.get(walletEntity.getWalletName()) == null) {
+                    keyStore.put(walletEntity);
+                    imported++;
+                }
+                lastName = walletEntity.getWalletName();
+                if (imported > 0 && imported % REPORT_EVERY == 0) {
+                    log.info("{} wallets imported", imported);
+                }
+            }
+            keyStore.flush();
+            log.info("{} wallets imported in {} ms, {} in the keystore", imported,
+                    (System.nanoTime() - start) / 1000000, keyStore.size());
+
+            if (lastName != null) {
+                long lookup = System.nanoTime();
+                KeyStoreRecord record = keyStore.get(lastName);
+                KeyStoreRecord byKey = keyStore.getByPub(record.getPub());
+                log.info("Found {} by name and {} by account key in {} us, server key {}", record.getWalletName(),
+                        byKey.getWalletName(), (System.nanoTime() - lookup) / 1000,
+                        record.getServer() != null ? "found" : "missing");
+            }
+        }
+    }
+}
@@ -2,24 +2,38 @@ import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import domain.WalletEntity;
 import org.bitcoinj.core.Address;
+import org.bitcoinj.core.BlockChain;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.PeerGroup;
 import org.bitcoinj.core.TransactionConfidence;
-import org.bitcoinj.kits.WalletAppKit;
+import org.bitcoinj.core.listeners.DownloadProgressTracker;
 import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.utils.BriefLogFormatter;
 import org.bitcoinj.wallet.DeterministicKeyChain;
 import org.bitcoinj.wallet.MarriedKeyChain;
 import org.bitcoinj.wallet.UnreadableWalletException;
 import org.bitcoinj.wallet.Wallet;
+import utils.AddressPool;
+import utils.BlockStoreBuilder;
+import utils.BloomFilterManager;
 import utils.FileUtils;
+import utils.FsyncPolicy;
 import utils.JsonConverter;
+import utils.WalletJournal;
+import utils.WalletLoader;
+import utils.WalletSummary;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.Reader;
+import java.net.InetAddress;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Sync sample to receive from a wallet waiting to receive some bitcoins to an specific address.
@@ -28,10 +42,14 @@ import java.util.Scanner;
  */
 public class ReceiveTransaction {
 
-    private static WalletAppKit kit;
+    private static Wallet wallet;
+    private static WalletJournal journal;
+    private static PeerGroup peerGroup;
+    private static AddressPool addressPool;
+    public static final int ADDRESS_POOL_SIZE = 20;
     private static NetworkParameters params;
 
-    public static void main(String[] args) throws UnreadableWalletException, IOException, BlockStoreException {
+    public static void main(String[] args) throws UnreadableWalletException, IOException, BlockStoreException, InterruptedException {
 
         // This line makes the log output more compact and easily read, especially when using the JDK log adapter.
         BriefLogFormatter.init();
@@ -39,29 +57,52 @@ public class ReceiveTransaction {
         params = RegTestParams.get();
 
         // Import data:
-                /* recover data from Json*/
-        WalletEntity walletEntityEntity = JsonConverter.fromJson(FileUtils.
-                readFile(CreateHDKeys.WALLET_JSON, StandardCharsets.UTF_8));
-
-        Wallet wallet = Wallet.loadFromFile(new File("wallets/" + CreateMarriedWallet.WALLET_FILENAME + ".wallet"));
-        MarriedKeyChain chain1 = (MarriedKeyChain) wallet.getActiveKeyChain();
-        System.out.println("TO STRING WITH PRIV:\n " + chain1.toString(true, params));
-
+                /* recover data from Json, the encrypted data stays encoded as it is not needed to receive */
+        WalletEntity walletEntityEntity;
+        try (Reader reader = FileUtils.newReader(CreateHDKeys.WALLET_JSON)) {
+            walletEntityEntity = JsonConverter.fromJsonLazy(reader);
+        }
 
-        // Start up a basic app using a class that automates some boilerplate.
-        kit = new WalletAppKit(params, new File("wallets"), CreateMarriedWallet.WALLET_FILENAME);
+        /* the wallet loads in background through its journal, its summary answers meanwhile if it is up to date */
+        File directory = new File("wallets");
+        File walletFile = new File(directory, CreateMarriedWallet.WALLET_FILENAME + ".wallet");
+        WalletLoader loader = WalletLoader.start(walletFile, FsyncPolicy.FILE, 200, TimeUnit.MILLISECONDS);
+        WalletSummary summary = loader.getSummary();
+        if (summary != null) {
+            System.out.println("Balance: " + summary.getBalance().toFriendlyString());
+            System.out.println("Last receive address: " + summary.getCurrentReceiveAddress());
+        }
+        journal = loader.awaitJournal();
+        wallet = journal.getWallet();
+
+        BlockStore vStore = BlockStoreBuilder.createSPVStore(params,
+                new File(directory, CreateMarriedWallet.WALLET_FILENAME + ".spvchain"));
+        BlockStoreBuilder.resume(wallet, vStore);
+        File checkpointsFile = new File(BuildCheckpoints.CHECKPOINTS_FILE);
+        BlockStoreBuilder.checkpoint(vStore, checkpointsFile.exists() ? new FileInputStream(checkpointsFile) : null,
+                wallet.getEarliestKeyCreationTime());
+        BlockChain chain = new BlockChain(params, wallet, vStore);
+        /* new addresses come from keys already in the bloom filter, recalculated in batches */
+        peerGroup = new BloomFilterManager().newPeerGroup(params, chain);
+        peerGroup.addWallet(wallet);
 
         if (params == RegTestParams.get()) {
             // Regression test mode is designed for testing and development only, so there's no public network for it.
             // If you pick this mode, you're expected to be running a local "bitcoind -regtest" instance.
-            kit.connectToLocalHost();
+            peerGroup.addAddress(new PeerAddress(InetAddress.getLocalHost(), params.getPort()));
+            peerGroup.setMaxConnections(1);
         }
 
         // Download the block chain and wait until it's done.
-        kit.startAsync();
-        kit.awaitRunning();
+        peerGroup.start();
+        DownloadProgressTracker listener = new DownloadProgressTracker();
+        peerGroup.startBlockChainDownload(listener);
+        listener.await();
 
-        kit.wallet().addCoinsReceivedEventListener((wallet1, tx, prevBalance, newBalance) -> {
+        MarriedKeyChain chain1 = (MarriedKeyChain) wallet.getActiveKeyChain();
+        System.out.println("TO STRING WITH PRIV:\n " + chain1.toString(true, params));
+
+        wallet.addCoinsReceivedEventListener((wallet1, tx, prevBalance, newBalance) -> {
             // Runs in the dedicated "user thread".
             Coin value = tx.getValueSentToMe(wallet1);
             System.out.println("-----> coins resceived: " + tx.getHashAsString());
@@ -89,20 +130,24 @@ public class ReceiveTransaction {
             });
         });
 
-        kit.wallet().addTransactionConfidenceEventListener((wallet1, tx) -> {
+        wallet.addTransactionConfidenceEventListener((wallet1, tx) -> {
             System.out.println("-----> confidence changed: " + tx.getHashAsString());
             TransactionConfidence confidence = tx.getConfidence();
             System.out.println("new block depth: " + confidence.getDepthInBlocks());
         });
 
-        // Ready to run. The kit syncs the blockchain and our wallet event listener gets notified when something happens.
+        /* receive addresses derived in background */
+        addressPool = new AddressPool(journal, new File(directory, CreateMarriedWallet.WALLET_FILENAME + ".addresses"),
+                ADDRESS_POOL_SIZE);
+
+        // Ready to run. The peer group keeps the blockchain synced and our wallet event listener gets notified when something happens.
         // To test everything we create and print a fresh receiving address. Send some coins to that address and see if everything works.
-        Address sendToAddress = kit.wallet().freshReceiveAddress();
+        Address sendToAddress = addressPool.take();
         System.out.println("Send coins to: " + sendToAddress);
-        System.out.println("Balance: " + kit.wallet().getBalance());
-        System.out.println("Balance estimado: " + kit.wallet().getBalance(Wallet.BalanceType.ESTIMATED));
+        System.out.println("Balance: " + wallet.getBalance());
+        System.out.println("Balance estimado: " + wallet.getBalance(Wallet.BalanceType.ESTIMATED));
         System.out.println("is multisig: " + sendToAddress.isP2SHAddress());
-        System.out.println("Wallet is encrypted?: " + kit.wallet().isEncrypted());
+        System.out.println("Wallet is encrypted?: " + wallet.isEncrypted());
 
         for(;;){
             menu();
@@ -112,7 +157,7 @@ public class ReceiveTransaction {
     /**
      * Show a cli menu
      */
-    public static void menu() {
+    public static void menu() throws IOException {
 
         int selection;
         Scanner input = new Scanner(System.in);
@@ -131,7 +176,7 @@ public class ReceiveTransaction {
         selection = input.nextInt();
         switch (selection) {
             case 1:
-                DeterministicKeyChain chain = kit.wallet().getActiveKeyChain();
+                DeterministicKeyChain chain = wallet.getActiveKeyChain();
                 System.out.println("Is Following: " + chain.isFollowing());
                 System.out.println("Is Married: " + chain.isMarried());
                 System.out.println("Is Watching: " + chain.isWatching());
@@ -139,19 +184,19 @@ public class ReceiveTransaction {
                 System.out.println("Num keys issued: " + chain.numLeafKeysIssued());
                 System.out.println("TO STRING WITH PRIV:\n " + chain.toString(true, params));
                 System.out.println("");
-                address = kit.wallet().currentReceiveAddress();
+                address = wallet.currentReceiveAddress();
                 System.out.println("Address: " + address);
                 System.out.println("is multisig: " + address.isP2SHAddress());
                 break;
             case 2:
                 // New address
-                address = kit.wallet().freshReceiveAddress();
+                address = addressPool.take();
                 System.out.println("New Address: acpi " + address);
                 break;
             case 3:
                 // Show balance
-                System.out.println("Balance: " + kit.wallet().getBalance());
-                System.out.println("Balance estimado: " + kit.wallet().getBalance(Wallet.BalanceType.ESTIMATED));
+                System.out.println("Balance: " + wallet.getBalance());
+                System.out.println("Balance estimado: " + wallet.getBalance(Wallet.BalanceType.ESTIMATED));
                 break;
             case 4:
                 // Perform "decrypt number" case.
@@ -159,6 +204,9 @@ public class ReceiveTransaction {
                 break;
             case 0:
                 // Perform "quit" case.
+                addressPool.close();
+                peerGroup.stop();
+                journal.close();
                 System.exit(0);
                 break;
             default:
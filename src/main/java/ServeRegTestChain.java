@@ -0,0 +1,71 @@
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.utils.BriefLogFormatter;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import utils.RegTestChainGenerator;
+import utils.RegTestPeer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Serves a generated regtest chain paying the married wallet on the regtest port, in place of bitcoind, so
+ * SyncWallet and SyncWallets run without a node. The wallet file is only read.
+ *
+ * The chain ends now, with the transactions spread over it paying the next receive addresses of the wallet. Enter
+ * mines a block with the transactions sent to the peer, e.g. by option 5 of SyncWallet.
+ *
+ * usage: java ServeRegTestChain [blocks] [transactions]
+ */
+public class ServeRegTestChain {
+
+    private static final int ADDRESSES = 20;
+
+    public static void main(String[] args) throws UnreadableWalletException, IOException {
+
+        BriefLogFormatter.init();
+
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        NetworkParameters params = RegTestParams.get();
+        Context.propagate(new Context(params));
+
+        /* the addresses after the ones it issued, in its bloom filter once it syncs */
+        Wallet wallet = Wallet.loadFromFile(new File("wallets", CreateMarriedWallet.WALLET_FILENAME + ".wallet"));
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < Math.min(transactions, ADDRESSES); i++) {
+            addresses.add(wallet.freshReceiveAddress());
+        }
+
+        /* the same miner every run, so the same wallet gets the same chain */
+        Address miner = ECKey.fromPrivate(Sha256Hash.hash("regtest miner".getBytes(StandardCharsets.UTF_8)))
+                .toAddress(params);
+        List<Block> chain = RegTestChainGenerator.generate(blocks, RegTestChainGenerator.startTime(blocks), miner,
+                addresses, transactions);
+
+        try (RegTestPeer peer = new RegTestPeer(chain, miner, params.getPort())) {
+            peer.start();
+            System.out.println("Serving " + blocks + " blocks with " + transactions + " transactions to "
+                    + addresses.size() + " addresses on port " + peer.getPort());
+            System.out.println("Miner address: " + miner);
+            System.out.println("Enter to mine a block, q to quit");
+
+            Scanner input = new Scanner(System.in);
+            while (input.hasNextLine() && !input.nextLine().trim().equals("q")) {
+                Block block = peer.mine();
+                System.out.println("Block " + peer.getBestHeight() + ": " + block.getHashAsString());
+            }
+        }
+    }
+}
@@ -8,13 +8,21 @@ import org.bitcoinj.net.discovery.DnsDiscovery;
 import org.bitcoinj.params.RegTestParams;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
-import org.bitcoinj.store.SPVBlockStore;
 import org.bitcoinj.utils.BriefLogFormatter;
 import org.bitcoinj.wallet.DeterministicKeyChain;
 import org.bitcoinj.wallet.UnreadableWalletException;
 import org.bitcoinj.wallet.Wallet;
+import utils.AddressPool;
+import utils.BlockStoreBuilder;
+import utils.BloomFilterManager;
+import utils.FsyncPolicy;
+import utils.Metrics;
+import utils.WalletJournal;
+import utils.WalletLoader;
+import utils.WalletSummary;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Scanner;
@@ -31,9 +39,12 @@ public class SyncWallet {
 
     private static NetworkParameters params;
     private static Wallet wallet;
-    private static File walletFile;
+    private static WalletJournal journal;
     private static Address forwardingAddress;
     private static PeerGroup peerGroup;
+    private static BloomFilterManager bloomFilters;
+    private static AddressPool addressPool;
+    public static final int ADDRESS_POOL_SIZE = 20;
 
     public static void main(String[] args) throws UnreadableWalletException, IOException, BlockStoreException, InterruptedException, AddressFormatException {
 
@@ -44,18 +55,35 @@ public class SyncWallet {
 
         // This line makes the log output more compact and easily read, especially when using the JDK log adapter.
         BriefLogFormatter.init();
+        /* sync and wallet metrics as MBeans, e.g. in jconsole */
+        Metrics.startJmx();
 
         params = RegTestParams.get();
         forwardingAddress = Address.fromBase58(params, args[0]);
         File directory = new File("wallets");
-        walletFile = new File(directory, CreateMarriedWallet.WALLET_FILENAME + ".wallet");
-        wallet = Wallet.loadFromFile(walletFile);
-        wallet.autosaveToFile(walletFile, 5, TimeUnit.SECONDS, null);
+        File walletFile = new File(directory, CreateMarriedWallet.WALLET_FILENAME + ".wallet");
+        /* changes are appended to a journal instead of saving the whole wallet, loaded while the summary shows */
+        WalletLoader loader = WalletLoader.start(walletFile, FsyncPolicy.FILE, 200, TimeUnit.MILLISECONDS);
+        WalletSummary summary = loader.getSummary();
+        if (summary != null) {
+            System.out.println("Balance: " + summary.getBalance().toFriendlyString()
+                    + " at block " + summary.getLastBlockSeenHeight());
+            System.out.println("Receive address: " + summary.getCurrentReceiveAddress());
+        }
+        journal = loader.awaitJournal();
+        wallet = journal.getWallet();
 
         File chainFile = new File(directory, CreateMarriedWallet.WALLET_FILENAME + ".spvchain");
-        BlockStore vStore = new SPVBlockStore(params, chainFile);
+        BlockStore vStore = BlockStoreBuilder.createSPVStore(params, chainFile);
+        BlockStoreBuilder.resume(wallet, vStore);
+        /* regtest has no bundled checkpoints, BuildCheckpoints writes them from a synced store */
+        File checkpointsFile = new File(BuildCheckpoints.CHECKPOINTS_FILE);
+        BlockStoreBuilder.checkpoint(vStore, checkpointsFile.exists() ? new FileInputStream(checkpointsFile) : null,
+                wallet.getEarliestKeyCreationTime());
         BlockChain chain = new BlockChain(params, wallet, vStore);
-        peerGroup = new PeerGroup(params, chain);
+        /* new addresses come from keys already in the bloom filter, recalculated in batches at most every 2 s */
+        bloomFilters = new BloomFilterManager();
+        peerGroup = bloomFilters.newPeerGroup(params, chain);
         peerGroup.setUserAgent("PeerMonitor", "1.0");
 
         PeerAddress peerAddresses = null;
@@ -74,10 +102,19 @@ public class SyncWallet {
             peerGroup.addPeerDiscovery(new DnsDiscovery(params));
         }
 
+        long start = System.nanoTime();
         peerGroup.start();
         final DownloadProgressTracker listener = new DownloadProgressTracker();
         peerGroup.startBlockChainDownload(listener);
         listener.await();
+        System.out.println("Synced to block " + vStore.getChainHead().getHeight() + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        System.out.println("Bloom filter false positive rate: " + bloomFilters.getObservedFalsePositiveRate()
+                + " over " + bloomFilters.getFilteredTransactions() + " filtered transactions");
+
+        /* receive addresses derived in background */
+        addressPool = new AddressPool(journal, new File(directory, CreateMarriedWallet.WALLET_FILENAME + ".addresses"),
+                ADDRESS_POOL_SIZE);
 
         wallet.addCoinsReceivedEventListener((wallet1, tx, prevBalance, newBalance) -> {
             // Runs in the dedicated "user thread".
@@ -167,7 +204,7 @@ public class SyncWallet {
                 break;
             case 2:
                 // New address
-                address = wallet.freshReceiveAddress();
+                address = addressPool.take();
                 System.out.println("New Address: " + address);
                 break;
             case 3:
@@ -185,7 +222,8 @@ public class SyncWallet {
                 forwardCoins(Coin.valueOf(100000));
                 break;
             case 0:
-                wallet.saveToFile(walletFile);
+                addressPool.close();
+                journal.close();
                 // Perform "quit" case.
                 System.exit(0);
                 break;
@@ -193,7 +231,7 @@ public class SyncWallet {
                 // The user input an unexpected choice.
         }
 
-        wallet.saveToFile(walletFile);
+        journal.sync();
         input.next();
     }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.utils.BriefLogFormatter;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import utils.BlockStoreBuilder;
+import utils.FsyncPolicy;
+import utils.Metrics;
+import utils.SharedSyncEngine;
+import utils.WalletJournal;
+import utils.WalletLoader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs many wallets with one block chain and one connection to the node, with a SharedSyncEngine
+ * You will need to run a Bitcoind node in regtest mode:
+ *  ~$ ./bin/bitcoind -regtest -daemon
+ *
+ * usage: java SyncWallets [wallet file]...  all the wallets of the wallets directory by default
+ */
+public class SyncWallets {
+
+    public static void main(String[] args) throws UnreadableWalletException, IOException, BlockStoreException, InterruptedException {
+
+        BriefLogFormatter.init();
+        /* sync and wallet metrics as MBeans, e.g. in jconsole */
+        Metrics.startJmx();
+
+        NetworkParameters params = RegTestParams.get();
+        File directory = new File("wallets");
+        List<File> walletFiles = new ArrayList<>();
+        if (args.length > 0) {
+            for (String arg : args) {
+                walletFiles.add(new File(arg));
+            }
+        } else {
+            File[] files = directory.listFiles((dir, name) -> name.endsWith(".wallet"));
+            if (files != null) {
+                for (File file : files) {
+                    walletFiles.add(file);
+                }
+            }
+        }
+        if (walletFiles.isEmpty()) {
+            System.out.println("usage: java SyncWallets [wallet file]...");
+            System.exit(-1);
+        }
+
+        /* loaded in parallel */
+        List<WalletLoader> loaders = new ArrayList<>();
+        for (File walletFile : walletFiles) {
+            loaders.add(WalletLoader.start(walletFile, FsyncPolicy.FILE, 200, TimeUnit.MILLISECONDS));
+        }
+        List<WalletJournal> journals = new ArrayList<>();
+        long earliestKeyTime = Long.MAX_VALUE;
+        for (WalletLoader loader : loaders) {
+            WalletJournal journal = loader.awaitJournal();
+            journals.add(journal);
+            earliestKeyTime = Math.min(earliestKeyTime, journal.getWallet().getEarliestKeyCreationTime());
+        }
+
+        BlockStore store = BlockStoreBuilder.createSPVStore(params, new File(directory, "shared.spvchain"));
+        File checkpointsFile = new File(BuildCheckpoints.CHECKPOINTS_FILE);
+        BlockStoreBuilder.checkpoint(store, checkpointsFile.exists() ? new FileInputStream(checkpointsFile) : null,
+                earliestKeyTime);
+
+        SharedSyncEngine engine = new SharedSyncEngine(params, store);
+        for (WalletJournal journal : journals) {
+            engine.addWallet(journal.getWallet());
+        }
+        engine.getPeerGroup().setUserAgent("PeerMonitor", "1.0");
+        engine.getPeerGroup().addAddress(new PeerAddress(InetAddress.getLocalHost(), params.getPort()));
+        engine.getPeerGroup().setMaxConnections(1);
+
+        long start = System.nanoTime();
+        engine.start();
+        engine.awaitDownload();
+        System.out.println(engine.getWalletCount() + " wallets synced to block " + store.getChainHead().getHeight()
+                + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        System.out.println("Bloom filter false positive rate: " + engine.getBloomFilters().getObservedFalsePositiveRate()
+                + " over " + engine.getBloomFilters().getFilteredTransactions() + " filtered transactions");
+
+        for (int i = 0; i < journals.size(); i++) {
+            Wallet wallet = journals.get(i).getWallet();
+            System.out.println(walletFiles.get(i).getName() + ": " + wallet.getBalance().toFriendlyString()
+                    + " at block " + wallet.getLastBlockSeenHeight());
+        }
+
+        engine.close();
+        for (WalletJournal journal : journals) {
+            journal.close();
+        }
+        store.close();
+    }
+}
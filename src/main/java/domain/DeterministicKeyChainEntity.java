@@ -1,6 +1,9 @@
 package domain;
 
 import lombok.*;
+import utils.encrypt.KdfParameters;
+
+import java.util.Arrays;
 
 /**
  * A DeterministicKeyChain entity
@@ -18,4 +21,26 @@ public class DeterministicKeyChainEntity {
     /* seed */
     private EncryptedData seedEncrypted;
 
+    /**
+     * The parent key and the seed are encrypted with one key derivation when both share salt and scrypt N, r and p
+     *
+     * @return
+     */
+    public boolean hasSharedKdfParameters() {
+        EncryptedData encrypted = getEncrypted();
+        EncryptedData seedEncrypted = getSeedEncrypted();
+        return encrypted != null && seedEncrypted != null
+                && encrypted.getIter() == seedEncrypted.getIter()
+                && orDefault(encrypted.getR(), KdfParameters.DEFAULT_R)
+                    == orDefault(seedEncrypted.getR(), KdfParameters.DEFAULT_R)
+                && orDefault(encrypted.getP(), KdfParameters.DEFAULT_P)
+                    == orDefault(seedEncrypted.getP(), KdfParameters.DEFAULT_P)
+                && Arrays.equals(encrypted.getSalt(), seedEncrypted.getSalt());
+    }
+
+    /* r and p are 0 in data encrypted before they were stored, the scrypt defaults */
+    private static int orDefault(int value, int defaultValue) {
+        return value > 0 ? value : defaultValue;
+    }
+
 }
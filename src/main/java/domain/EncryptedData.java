@@ -22,5 +22,8 @@ public class EncryptedData {
     @NonNull private byte[] salt;
     @NonNull private int sl; // in bits
     @NonNull private byte[] data;
+    /* scrypt r and p, 0 in data encrypted before they were stored means the scrypt defaults */
+    private int r;
+    private int p;
 
 }
@@ -0,0 +1,67 @@
+package domain;
+
+import java.util.function.Supplier;
+
+/**
+ * A DeterministicKeyChainEntity that decodes its encrypted data on first access.
+ *
+ * pub and created are decoded when it is read, encrypted and seedEncrypted are kept encoded until they are asked
+ * for, so listing keys or deriving watch-only addresses never decodes nor allocates the secret material.
+ */
+public class LazyDeterministicKeyChainEntity extends DeterministicKeyChainEntity {
+
+    private Supplier<EncryptedData> encodedEncrypted;
+    private Supplier<EncryptedData> encodedSeedEncrypted;
+
+    /**
+     * @param pub
+     * @param created
+     * @param encodedEncrypted decodes the parent key, null if there is none
+     * @param encodedSeedEncrypted decodes the seed, null if there is none
+     */
+    public LazyDeterministicKeyChainEntity(byte[] pub, long created, Supplier<EncryptedData> encodedEncrypted,
+                                           Supplier<EncryptedData> encodedSeedEncrypted) {
+        super(pub, created);
+        this.encodedEncrypted = encodedEncrypted;
+        this.encodedSeedEncrypted = encodedSeedEncrypted;
+    }
+
+    @Override
+    public synchronized EncryptedData getEncrypted() {
+        if (encodedEncrypted != null) {
+            super.setEncrypted(encodedEncrypted.get());
+            encodedEncrypted = null;
+        }
+        return super.getEncrypted();
+    }
+
+    @Override
+    public synchronized void setEncrypted(EncryptedData encrypted) {
+        encodedEncrypted = null;
+        super.setEncrypted(encrypted);
+    }
+
+    @Override
+    public synchronized EncryptedData getSeedEncrypted() {
+        if (encodedSeedEncrypted != null) {
+            super.setSeedEncrypted(encodedSeedEncrypted.get());
+            encodedSeedEncrypted = null;
+        }
+        return super.getSeedEncrypted();
+    }
+
+    @Override
+    public synchronized void setSeedEncrypted(EncryptedData seedEncrypted) {
+        encodedSeedEncrypted = null;
+        super.setSeedEncrypted(seedEncrypted);
+    }
+
+    /**
+     * Whether the encrypted data has been decoded, or there was none
+     *
+     * @return
+     */
+    public synchronized boolean isDecoded() {
+        return encodedEncrypted == null && encodedSeedEncrypted == null;
+    }
+}
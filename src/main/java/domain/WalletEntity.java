@@ -5,7 +5,8 @@ import lombok.Data;
 import lombok.ToString;
 
 /**
- * A wallet entity that represents their name and two pair of keys, main and backup for the user
+ * A wallet entity that represents their name and two pair of keys, main and backup for the user, plus the server key
+ * of wallets provisioned by BulkCreateHDKeys
  */
 @Data
 @AllArgsConstructor
@@ -15,5 +16,11 @@ public class WalletEntity {
     String walletName;
     private DeterministicKeyChainEntity key;
     private DeterministicKeyChainEntity backup;
+    /* null but in provisioned wallets */
+    private DeterministicKeyChainEntity server;
+
+    public WalletEntity(String walletName, DeterministicKeyChainEntity key, DeterministicKeyChainEntity backup) {
+        this(walletName, key, backup, null);
+    }
 
 }
@@ -0,0 +1,124 @@
+package domain.mapper;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import domain.EncryptedData;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.function.Supplier;
+
+/**
+ * Encrypted data json conversion, byte arrays as Base64
+ */
+public class EncryptedDataTypeAdapter extends TypeAdapter<EncryptedData> {
+
+    @Override
+    public void write(JsonWriter out, EncryptedData encryptedData) throws IOException {
+
+        if (encryptedData == null) {
+            out.nullValue();
+            return;
+        }
+
+        Base64.Encoder encoder = Base64.getEncoder();
+
+        out.beginObject();
+        out.name("iv").value(encoder.encodeToString(encryptedData.getIv()));
+        out.name("iter").value(encryptedData.getIter());
+        out.name("cipher").value(encryptedData.getCipher());
+        out.name("ks").value(encryptedData.getKs());
+        out.name("mode").value(encryptedData.getMode());
+        out.name("bs").value(encryptedData.getBs());
+        out.name("salt").value(encoder.encodeToString(encryptedData.getSalt()));
+        out.name("sl").value(encryptedData.getSl());
+        out.name("data").value(encoder.encodeToString(encryptedData.getData()));
+        out.name("r").value(encryptedData.getR());
+        out.name("p").value(encryptedData.getP());
+        out.endObject();
+    }
+
+    @Override
+    public EncryptedData read(JsonReader in) throws IOException {
+
+        Supplier<EncryptedData> encoded = readEncoded(in);
+        return encoded != null ? encoded.get() : null;
+    }
+
+    /**
+     * Read encrypted data keeping its Base64 fields encoded
+     *
+     * @param in
+     * @return decodes the encrypted data when called, null for a json null
+     * @throws IOException
+     */
+    public Supplier<EncryptedData> readEncoded(JsonReader in) throws IOException {
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        EncodedEncryptedData encoded = new EncodedEncryptedData();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "iv": encoded.iv = in.nextString(); break;
+                case "iter": encoded.iter = in.nextLong(); break;
+                case "cipher": encoded.cipher = in.nextString(); break;
+                case "ks": encoded.ks = in.nextInt(); break;
+                case "mode": encoded.mode = in.nextString(); break;
+                case "bs": encoded.bs = in.nextInt(); break;
+                case "salt": encoded.salt = in.nextString(); break;
+                case "sl": encoded.sl = in.nextInt(); break;
+                case "data": encoded.data = in.nextString(); break;
+                case "r": encoded.r = in.nextInt(); break;
+                case "p": encoded.p = in.nextInt(); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (encoded.iv == null || encoded.cipher == null || encoded.mode == null || encoded.salt == null
+                || encoded.data == null) {
+            throw new JsonParseException("Incomplete encrypted data at " + in);
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Encrypted data as read, byte arrays still in Base64
+     */
+    private static final class EncodedEncryptedData implements Supplier<EncryptedData> {
+
+        private String iv;
+        private long iter;
+        private String cipher;
+        private int ks;
+        private String mode;
+        private int bs;
+        private String salt;
+        private int sl;
+        private String data;
+        private int r;
+        private int p;
+
+        @Override
+        public EncryptedData get() {
+
+            Base64.Decoder decoder = Base64.getDecoder();
+
+            EncryptedData encryptedData = new EncryptedData(decoder.decode(iv), iter, cipher, ks, mode, bs,
+                    decoder.decode(salt), sl, decoder.decode(data));
+            encryptedData.setR(r);
+            encryptedData.setP(p);
+
+            return encryptedData;
+        }
+    }
+}
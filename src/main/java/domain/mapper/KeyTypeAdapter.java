@@ -0,0 +1,103 @@
+package domain.mapper;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import domain.DeterministicKeyChainEntity;
+import domain.EncryptedData;
+import domain.LazyDeterministicKeyChainEntity;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.function.Supplier;
+
+/**
+ * Key entity json conversion, with or without its encrypted data.
+ * A lazy adapter reads LazyDeterministicKeyChainEntity, which decodes the encrypted data on first access.
+ */
+public class KeyTypeAdapter extends TypeAdapter<DeterministicKeyChainEntity> {
+
+    private final EncryptedDataTypeAdapter encryptedDataAdapter = new EncryptedDataTypeAdapter();
+    private final boolean addEncryptedData;
+    private final boolean lazy;
+
+    public KeyTypeAdapter(boolean addEncryptedData) {
+        this(addEncryptedData, false);
+    }
+
+    /**
+     * @param addEncryptedData write the encrypted data
+     * @param lazy read keys that decode their encrypted data on first access
+     */
+    public KeyTypeAdapter(boolean addEncryptedData, boolean lazy) {
+        this.addEncryptedData = addEncryptedData;
+        this.lazy = lazy;
+    }
+
+    @Override
+    public void write(JsonWriter out, DeterministicKeyChainEntity deterministicKeyChainEntity) throws IOException {
+
+        if (deterministicKeyChainEntity == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("pub").value(Base64.getEncoder().encodeToString(deterministicKeyChainEntity.getPub()));
+        out.name("created").value(deterministicKeyChainEntity.getCreated());
+
+        if (addEncryptedData) {
+            writeEncrypted(out, "encrypted", deterministicKeyChainEntity.getEncrypted());
+            writeEncrypted(out, "seedEncrypted", deterministicKeyChainEntity.getSeedEncrypted());
+        }
+        out.endObject();
+    }
+
+    @Override
+    public DeterministicKeyChainEntity read(JsonReader in) throws IOException {
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        byte[] pub = null;
+        long created = 0;
+        Supplier<EncryptedData> encrypted = null;
+        Supplier<EncryptedData> seedEncrypted = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "pub": pub = Base64.getDecoder().decode(in.nextString()); break;
+                case "created": created = in.nextLong(); break;
+                case "encrypted": encrypted = encryptedDataAdapter.readEncoded(in); break;
+                case "seedEncrypted": seedEncrypted = encryptedDataAdapter.readEncoded(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (pub == null) {
+            throw new JsonParseException("Key without pub at " + in);
+        }
+
+        if (lazy) {
+            return new LazyDeterministicKeyChainEntity(pub, created, encrypted, seedEncrypted);
+        }
+        return new DeterministicKeyChainEntity(pub, created, encrypted != null ? encrypted.get() : null,
+                seedEncrypted != null ? seedEncrypted.get() : null);
+    }
+
+    /**
+     * Null encrypted data is left out
+     */
+    private void writeEncrypted(JsonWriter out, String name, EncryptedData encryptedData) throws IOException {
+        if (encryptedData != null) {
+            out.name(name);
+            encryptedDataAdapter.write(out, encryptedData);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package domain.mapper;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import domain.DeterministicKeyChainEntity;
+import domain.WalletEntity;
+
+import java.io.IOException;
+
+/**
+ * Wallet json conversion: main key with encrypted data, backup key without it unless asked, server key with it if
+ * there is one
+ */
+public class WalletTypeAdapter extends TypeAdapter<WalletEntity> {
+
+    private final KeyTypeAdapter keyAdapter;
+    private final KeyTypeAdapter backupAdapter;
+
+    public WalletTypeAdapter() {
+        this(false);
+    }
+
+    /**
+     * @param lazy read keys that decode their encrypted data on first access
+     */
+    public WalletTypeAdapter(boolean lazy) {
+        this(lazy, false);
+    }
+
+    /**
+     * @param lazy read keys that decode their encrypted data on first access
+     * @param addBackupEncryptedData write the encrypted data of the backup key too, as provisioned wallets have it
+     */
+    public WalletTypeAdapter(boolean lazy, boolean addBackupEncryptedData) {
+        keyAdapter = new KeyTypeAdapter(true, lazy);
+        backupAdapter = new KeyTypeAdapter(addBackupEncryptedData, lazy);
+    }
+
+    @Override
+    public void write(JsonWriter out, WalletEntity walletEntity) throws IOException {
+
+        if (walletEntity == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        if (walletEntity.getWalletName() != null) {
+            out.name("walletName").value(walletEntity.getWalletName());
+        }
+        out.name("key");
+        keyAdapter.write(out, walletEntity.getKey());
+        out.name("backup");
+        backupAdapter.write(out, walletEntity.getBackup());
+        if (walletEntity.getServer() != null) {
+            out.name("server");
+            keyAdapter.write(out, walletEntity.getServer());
+        }
+        out.endObject();
+    }
+
+    /**
+     * Reads wallets and provisioned wallets with their server key
+     */
+    @Override
+    public WalletEntity read(JsonReader in) throws IOException {
+
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        String walletName = null;
+        DeterministicKeyChainEntity key = null;
+        DeterministicKeyChainEntity backup = null;
+        DeterministicKeyChainEntity server = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "walletName": walletName = in.nextString(); break;
+                case "key": key = keyAdapter.read(in); break;
+                case "backup": backup = keyAdapter.read(in); break;
+                case "server": server = keyAdapter.read(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return new WalletEntity(walletName, key, backup, server);
+    }
+}
@@ -0,0 +1,55 @@
+package repository;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Pooled data sources for WalletRepository
+ */
+public class DataSourceBuilder {
+
+    public static final int DEFAULT_POOL_SIZE = 10;
+    private static final String POSTGRESQL_URL = "jdbc:postgresql:";
+
+    /**
+     * A pool of connections to PostgreSQL or H2
+     *
+     * @param jdbcUrl
+     * @param user
+     * @param password
+     * @param poolSize
+     * @return
+     */
+    public static HikariDataSource create(String jdbcUrl, String user, String password, int poolSize) {
+        checkNotNull(jdbcUrl);
+        checkArgument(poolSize > 0, "poolSize must be positive");
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("wallets");
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername(user);
+        config.setPassword(password);
+        config.setMaximumPoolSize(poolSize);
+
+        if (jdbcUrl.startsWith(POSTGRESQL_URL)) {
+            /* server side prepared statements from the first use, cached per connection */
+            config.addDataSourceProperty("prepareThreshold", "1");
+            config.addDataSourceProperty("preparedStatementCacheQueries", "256");
+        }
+
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * A pool of connections to an in-memory H2 database, kept while the JVM runs
+     *
+     * @param name
+     * @return
+     */
+    public static HikariDataSource createH2InMemory(String name) {
+        return create("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "", DEFAULT_POOL_SIZE);
+    }
+}
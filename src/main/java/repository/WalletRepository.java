@@ -0,0 +1,278 @@
+package repository;
+
+import com.google.common.io.Resources;
+import domain.DeterministicKeyChainEntity;
+import domain.EncryptedData;
+import domain.WalletEntity;
+import org.bitcoinj.core.Utils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Collections;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Wallets, their account keys and encrypted data in PostgreSQL or H2 (tables in wallet-schema.sql).
+ *
+ * Wallets are saved in one transaction per call with JDBC batches, one prepared statement per table, and found by
+ * wallet name or account key through primary keys. The key, backup key and server key of provisioned wallets are
+ * saved with the encrypted data they have.
+ */
+public class WalletRepository {
+
+    public static final String SCHEMA = "wallet-schema.sql";
+    public static final int BATCH_SIZE = 500;
+
+    private static final int ENCRYPTED = 0;
+    private static final int SEED_ENCRYPTED = 1;
+
+    private static final String INSERT_KEY = "INSERT INTO key_chain (fingerprint, pub, created) VALUES (?, ?, ?)";
+    private static final String INSERT_ENCRYPTED_DATA = "INSERT INTO encrypted_data "
+            + "(fingerprint, kind, iv, iter, cipher, ks, mode, bs, salt, sl, data, r, p) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_WALLET = "INSERT INTO wallet "
+            + "(name, key_fingerprint, backup_fingerprint, server_fingerprint) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_WALLET = "SELECT key_fingerprint, backup_fingerprint, server_fingerprint "
+            + "FROM wallet WHERE name = ?";
+    private static final String SELECT_KEY = "SELECT k.pub, k.created, e.kind, e.iv, e.iter, e.cipher, e.ks, e.mode, "
+            + "e.bs, e.salt, e.sl, e.data, e.r, e.p FROM key_chain k "
+            + "LEFT JOIN encrypted_data e ON e.fingerprint = k.fingerprint WHERE k.fingerprint = ?";
+
+    private final DataSource dataSource;
+
+    /**
+     * @param dataSource a pool, see DataSourceBuilder
+     */
+    public WalletRepository(DataSource dataSource) {
+        this.dataSource = checkNotNull(dataSource);
+    }
+
+    /**
+     * Create the tables that do not exist
+     *
+     * @throws SQLException
+     * @throws IOException if the schema can not be read
+     */
+    public void createSchema() throws SQLException, IOException {
+
+        String schema = Resources.toString(Resources.getResource(SCHEMA), StandardCharsets.UTF_8);
+
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (String sql : schema.replaceAll("(?m)^--.*$", "").split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    statement.execute(sql);
+                }
+            }
+        }
+    }
+
+    public void save(WalletEntity walletEntity) throws SQLException {
+        saveAll(Collections.singletonList(walletEntity));
+    }
+
+    /**
+     * Save wallets in one transaction, none of them is saved if one fails
+     *
+     * @param walletEntities with name and key
+     * @throws SQLException e.g. if a wallet name or account key is already saved
+     */
+    public void saveAll(Collection<WalletEntity> walletEntities) throws SQLException {
+        checkNotNull(walletEntities);
+
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement keys = connection.prepareStatement(INSERT_KEY);
+                 PreparedStatement encryptedData = connection.prepareStatement(INSERT_ENCRYPTED_DATA);
+                 PreparedStatement wallets = connection.prepareStatement(INSERT_WALLET)) {
+
+                int batched = 0;
+                for (WalletEntity walletEntity : walletEntities) {
+                    checkArgument(walletEntity.getWalletName() != null && walletEntity.getKey() != null,
+                            "wallets need name and key");
+
+                    wallets.setString(1, walletEntity.getWalletName());
+                    wallets.setBytes(2, addKey(keys, encryptedData, walletEntity.getKey()));
+                    setKey(wallets, 3, keys, encryptedData, walletEntity.getBackup());
+                    setKey(wallets, 4, keys, encryptedData, walletEntity.getServer());
+                    wallets.addBatch();
+
+                    if (++batched % BATCH_SIZE == 0) {
+                        executeBatches(keys, encryptedData, wallets);
+                    }
+                }
+                executeBatches(keys, encryptedData, wallets);
+
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Wallet by name
+     *
+     * @param walletName
+     * @return null if there is none
+     * @throws SQLException
+     */
+    public WalletEntity findByName(String walletName) throws SQLException {
+        checkNotNull(walletName);
+
+        try (Connection connection = dataSource.getConnection()) {
+            byte[] keyFingerprint;
+            byte[] backupFingerprint;
+            byte[] serverFingerprint;
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_WALLET)) {
+                statement.setString(1, walletName);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+                    keyFingerprint = resultSet.getBytes(1);
+                    backupFingerprint = resultSet.getBytes(2);
+                    serverFingerprint = resultSet.getBytes(3);
+                }
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_KEY)) {
+                DeterministicKeyChainEntity key = findKey(statement, keyFingerprint);
+                DeterministicKeyChainEntity backup = backupFingerprint != null
+                        ? findKey(statement, backupFingerprint) : null;
+                DeterministicKeyChainEntity server = serverFingerprint != null
+                        ? findKey(statement, serverFingerprint) : null;
+
+                return new WalletEntity(walletName, key, backup, server);
+            }
+        }
+    }
+
+    /**
+     * Account key with its encrypted data
+     *
+     * @param pub serialized public account key
+     * @return null if there is none
+     * @throws SQLException
+     */
+    public DeterministicKeyChainEntity findKeyByPub(byte[] pub) throws SQLException {
+        checkNotNull(pub);
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_KEY)) {
+            return findKey(statement, fingerprint(pub));
+        }
+    }
+
+    /**
+     * Key id, the hash160 of the account key
+     *
+     * @param pub
+     * @return
+     */
+    public static byte[] fingerprint(byte[] pub) {
+        return Utils.sha256hash160(pub);
+    }
+
+    /**
+     * Add an optional key of a wallet and set its fingerprint, or null, as parameter of the wallet row
+     */
+    private static void setKey(PreparedStatement wallets, int parameter, PreparedStatement keys,
+                               PreparedStatement encryptedData, DeterministicKeyChainEntity key) throws SQLException {
+        if (key != null) {
+            wallets.setBytes(parameter, addKey(keys, encryptedData, key));
+        } else {
+            wallets.setNull(parameter, Types.BINARY);
+        }
+    }
+
+    private static byte[] addKey(PreparedStatement keys, PreparedStatement encryptedData,
+                                 DeterministicKeyChainEntity key) throws SQLException {
+
+        byte[] fingerprint = fingerprint(key.getPub());
+
+        keys.setBytes(1, fingerprint);
+        keys.setBytes(2, key.getPub());
+        keys.setLong(3, key.getCreated());
+        keys.addBatch();
+
+        addEncryptedData(encryptedData, fingerprint, ENCRYPTED, key.getEncrypted());
+        addEncryptedData(encryptedData, fingerprint, SEED_ENCRYPTED, key.getSeedEncrypted());
+
+        return fingerprint;
+    }
+
+    private static void addEncryptedData(PreparedStatement statement, byte[] fingerprint, int kind,
+                                         EncryptedData encryptedData) throws SQLException {
+        if (encryptedData == null) {
+            return;
+        }
+
+        statement.setBytes(1, fingerprint);
+        statement.setShort(2, (short) kind);
+        statement.setBytes(3, encryptedData.getIv());
+        statement.setLong(4, encryptedData.getIter());
+        statement.setString(5, encryptedData.getCipher());
+        statement.setInt(6, encryptedData.getKs());
+        statement.setString(7, encryptedData.getMode());
+        statement.setInt(8, encryptedData.getBs());
+        statement.setBytes(9, encryptedData.getSalt());
+        statement.setInt(10, encryptedData.getSl());
+        statement.setBytes(11, encryptedData.getData());
+        statement.setInt(12, encryptedData.getR());
+        statement.setInt(13, encryptedData.getP());
+        statement.addBatch();
+    }
+
+    /* parent rows first for the foreign keys */
+    private static void executeBatches(PreparedStatement keys, PreparedStatement encryptedData,
+                                       PreparedStatement wallets) throws SQLException {
+        keys.executeBatch();
+        encryptedData.executeBatch();
+        wallets.executeBatch();
+    }
+
+    private static DeterministicKeyChainEntity findKey(PreparedStatement statement, byte[] fingerprint)
+            throws SQLException {
+
+        statement.setBytes(1, fingerprint);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            DeterministicKeyChainEntity key = null;
+            while (resultSet.next()) {
+                if (key == null) {
+                    key = new DeterministicKeyChainEntity(resultSet.getBytes(1), resultSet.getLong(2));
+                }
+                if (resultSet.getBytes(4) == null) {
+                    continue;
+                }
+
+                EncryptedData encryptedData = new EncryptedData(resultSet.getBytes(4), resultSet.getLong(5),
+                        resultSet.getString(6), resultSet.getInt(7), resultSet.getString(8), resultSet.getInt(9),
+                        resultSet.getBytes(10), resultSet.getInt(11), resultSet.getBytes(12));
+                encryptedData.setR(resultSet.getInt(13));
+                encryptedData.setP(resultSet.getInt(14));
+
+                if (resultSet.getInt(3) == ENCRYPTED) {
+                    key.setEncrypted(encryptedData);
+                } else {
+                    key.setSeedEncrypted(encryptedData);
+                }
+            }
+            return key;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A pool of receive addresses derived in background for a (married) wallet.
+ *
+ * freshReceiveAddress() derives the following keys, builds the P2SH redeem script and hashes it holding the wallet
+ * lock. The pool issues those addresses ahead of time on its own thread, so handing one out is a queue poll.
+ * Addresses not handed out yet are kept in a file and reused after a restart.
+ *
+ * The issued key counters of the wallet are synced to its journal before the file is written, and the file is
+ * written before an address is handed out, so after a crash no handed out address is pooled or issued again.
+ */
+public class AddressPool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AddressPool.class);
+
+    private final WalletJournal journal;
+    private final Wallet wallet;
+    private final File file;
+    private final int size;
+    private final int lowWater;
+    private final ConcurrentLinkedQueue<Address> addresses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+    private final ExecutorService executor;
+
+    /**
+     * Create the pool, loading the addresses left in the file, and start filling it
+     *
+     * @param journal of the wallet, synced before pooled addresses are persisted
+     * @param file where pooled addresses are persisted
+     * @param size addresses kept ready
+     */
+    public AddressPool(WalletJournal journal, File file, int size) {
+        checkNotNull(journal);
+        checkNotNull(file);
+        checkArgument(size > 0, "size must be positive");
+
+        this.journal = journal;
+        this.wallet = journal.getWallet();
+        this.file = file;
+        this.size = size;
+        this.lowWater = Math.max(1, size / 2);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("address-pool-%d").setDaemon(true).build());
+
+        load();
+        scheduleRefill();
+    }
+
+    /**
+     * Return an unused receive address, from the pool if there is one ready, once it is no longer in the file
+     *
+     * @return
+     * @throws IOException if the pool or the journal can not be written, the address is not handed out
+     */
+    public Address take() throws IOException {
+
+        Address address = addresses.poll();
+        if (address != null) {
+            count.decrementAndGet();
+        } else {
+            log.debug("Address pool empty, deriving in the caller thread");
+            address = wallet.freshReceiveAddress();
+        }
+
+        try {
+            persist();
+        } catch (IOException e) {
+            /* still issued by the wallet, pooled again for the next take */
+            addresses.add(address);
+            count.incrementAndGet();
+            throw e;
+        }
+        scheduleRefill();
+
+        return address;
+    }
+
+    /**
+     * Addresses ready
+     *
+     * @return
+     */
+    public int size() {
+        return count.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            persist();
+        } catch (IOException e) {
+            log.warn("Can not persist address pool to {}", file, e);
+        }
+    }
+
+    /**
+     * Refill below the low water mark
+     */
+    private void scheduleRefill() {
+        if (refillScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::refill);
+            } catch (RejectedExecutionException e) {
+                refillScheduled.set(false);
+            }
+        }
+    }
+
+    private void refill() {
+        refillScheduled.set(false);
+
+        if (count.get() < lowWater) {
+            Set<Address> pooled = new HashSet<>(addresses);
+            while (count.get() < size) {
+                Address address = wallet.freshReceiveAddress();
+                /* a wallet restored from an older save can issue an address already pooled */
+                if (pooled.add(address)) {
+                    addresses.add(address);
+                    count.incrementAndGet();
+                }
+            }
+
+            try {
+                persist();
+            } catch (IOException e) {
+                /* the next take persists them */
+                log.warn("Can not persist address pool to {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * Sync the issued key counters to the journal, then write the pooled addresses
+     */
+    private synchronized void persist() throws IOException {
+
+        StringBuilder lines = new StringBuilder();
+        for (Address address : addresses) {
+            lines.append(address.toBase58()).append('\n');
+        }
+
+        /* a pooled address is never in the file before the wallet has it issued */
+        journal.sync();
+        /* replaced atomically and forced to disk, a crash leaves the old pool or the new one */
+        FileUtils.write(file.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8),
+                FileUtils.DEFAULT_FSYNC_POLICY);
+    }
+
+    private void load() {
+
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Address address = Address.fromBase58(wallet.getParams(), line);
+                /* only addresses of this wallet */
+                if (wallet.isPayToScriptHashMine(address.getHash160()) && !addresses.contains(address)) {
+                    addresses.add(address);
+                    count.incrementAndGet();
+                }
+            }
+        } catch (IOException | AddressFormatException e) {
+            log.warn("Can not load address pool from {}, starting empty", file, e);
+        }
+
+        log.info("Loaded {} pooled addresses", count.get());
+    }
+}
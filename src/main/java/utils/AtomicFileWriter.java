@@ -0,0 +1,100 @@
+package utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A UTF-8 writer to a temporary file that replaces the target file on commit().
+ *
+ * Closing it without commit() discards what was written and leaves the target file as it was, so a failure
+ * in the middle of a write, caught by try-with-resources, never publishes a partial file.
+ */
+public class AtomicFileWriter extends Writer {
+
+    private final Path path;
+    private final Path tmp;
+    private final FsyncPolicy fsyncPolicy;
+    private final FileChannel channel;
+    private final Writer writer;
+    private boolean committed;
+    private boolean closed;
+
+    /**
+     * @param path target file
+     * @param fsyncPolicy
+     * @throws IOException
+     */
+    public AtomicFileWriter(Path path, FsyncPolicy fsyncPolicy) throws IOException {
+        this.path = checkNotNull(path);
+        this.fsyncPolicy = checkNotNull(fsyncPolicy);
+        this.tmp = FileUtils.newTempFile(path);
+        this.channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+        this.writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        writer.write(chars, offset, length);
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+        writer.write(string, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Replace the target file with what was written, forced to disk as the fsync policy says
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        checkState(!closed, "writer closed");
+
+        writer.flush();
+        if (fsyncPolicy.forceFile()) {
+            channel.force(true);
+        }
+        closed = true;
+        writer.close();
+
+        FileUtils.moveIntoPlace(tmp, path);
+        committed = true;
+
+        if (fsyncPolicy.forceDirectory()) {
+            FileUtils.forceDirectory(path);
+        }
+    }
+
+    /**
+     * Discard the temporary file if it was not committed
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                writer.close();
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } else if (!committed) {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
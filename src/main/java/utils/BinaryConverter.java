@@ -0,0 +1,365 @@
+package utils;
+
+import domain.DeterministicKeyChainEntity;
+import domain.EncryptedData;
+import domain.WalletEntity;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compact binary format of wallets and keys, lossless with the JSON of JsonConverter.
+ *
+ * A record is a fixed header followed by its fields:
+ *
+ *  magic "BJK" | version (1 byte) | record type (1 byte) | body length (varint) | body
+ *
+ * byte arrays and strings are a varint length followed by the bytes, numbers are varints and the
+ * optional values a flags byte. The usual AES-256 CBC 128 bits suite of EncryptedData is one byte
+ * instead of the cipher, mode and sizes of every record.
+ *
+ * Version 2 added the server key of provisioned wallets and the encrypted data of the backup key, version 1
+ * records are still read.
+ */
+public class BinaryConverter {
+
+    private static final byte[] MAGIC = {'B', 'J', 'K'};
+    public static final byte VERSION = 2;
+
+    public static final byte WALLET = 1;
+    public static final byte KEY = 2;
+
+    private static final int HEADER_LENGTH = MAGIC.length + 2;
+
+    /* wallet and key flags */
+    private static final int HAS_NAME = 1;
+    private static final int HAS_KEY = 1 << 1;
+    private static final int HAS_BACKUP = 1 << 2;
+    private static final int HAS_SERVER = 1 << 3;
+    private static final int HAS_ENCRYPTED = 1;
+    private static final int HAS_SEED_ENCRYPTED = 1 << 1;
+
+    /* cipher suites */
+    private static final int SUITE_EXPLICIT = 0;
+    private static final int SUITE_AES_256_CBC_128 = 1;
+
+    /**
+     * Encode a wallet, every key with the encrypted data it has
+     *
+     * @param walletEntity
+     * @return
+     */
+    public static byte[] toBinary(WalletEntity walletEntity) {
+        checkNotNull(walletEntity);
+
+        RecordWriter body = new RecordWriter(512);
+        body.writeByte((walletEntity.getWalletName() != null ? HAS_NAME : 0)
+                | (walletEntity.getKey() != null ? HAS_KEY : 0)
+                | (walletEntity.getBackup() != null ? HAS_BACKUP : 0)
+                | (walletEntity.getServer() != null ? HAS_SERVER : 0));
+        if (walletEntity.getWalletName() != null) {
+            body.writeBytes(walletEntity.getWalletName().getBytes(StandardCharsets.UTF_8));
+        }
+        if (walletEntity.getKey() != null) {
+            writeKey(body, walletEntity.getKey());
+        }
+        if (walletEntity.getBackup() != null) {
+            writeKey(body, walletEntity.getBackup());
+        }
+        if (walletEntity.getServer() != null) {
+            writeKey(body, walletEntity.getServer());
+        }
+
+        return record(WALLET, body);
+    }
+
+    /**
+     * Encode a key with its encrypted data
+     *
+     * @param deterministicKeyChainEntity
+     * @return
+     */
+    public static byte[] toBinary(DeterministicKeyChainEntity deterministicKeyChainEntity) {
+        checkNotNull(deterministicKeyChainEntity);
+
+        RecordWriter body = new RecordWriter(256);
+        writeKey(body, deterministicKeyChainEntity);
+
+        return record(KEY, body);
+    }
+
+    /**
+     * Decode a wallet record
+     *
+     * @param bytes
+     * @return
+     * @throws IllegalArgumentException if bytes is not a wallet record of a known version
+     */
+    public static WalletEntity walletFromBinary(byte[] bytes) {
+        ByteBuffer buffer = body(bytes, WALLET);
+        try {
+            int flags = buffer.get();
+            String walletName = (flags & HAS_NAME) != 0 ? new String(readBytes(buffer), StandardCharsets.UTF_8) : null;
+            DeterministicKeyChainEntity key = (flags & HAS_KEY) != 0 ? readKey(buffer) : null;
+            DeterministicKeyChainEntity backup = (flags & HAS_BACKUP) != 0 ? readKey(buffer) : null;
+            DeterministicKeyChainEntity server = (flags & HAS_SERVER) != 0 ? readKey(buffer) : null;
+            checkEnd(buffer);
+
+            return new WalletEntity(walletName, key, backup, server);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated wallet record", e);
+        }
+    }
+
+    /**
+     * Decode a key record
+     *
+     * @param bytes
+     * @return
+     * @throws IllegalArgumentException if bytes is not a key record of a known version
+     */
+    public static DeterministicKeyChainEntity keyFromBinary(byte[] bytes) {
+        ByteBuffer buffer = body(bytes, KEY);
+        try {
+            DeterministicKeyChainEntity key = readKey(buffer);
+            checkEnd(buffer);
+
+            return key;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated key record", e);
+        }
+    }
+
+    /**
+     * Convert a wallet in JSON to its binary record
+     *
+     * @param reader
+     * @return
+     */
+    public static byte[] walletJsonToBinary(Reader reader) {
+        return toBinary(JsonConverter.fromJson(reader));
+    }
+
+    /**
+     * Convert a wallet record to the JSON JsonConverter writes
+     *
+     * @param bytes
+     * @param writer
+     */
+    public static void walletBinaryToJson(byte[] bytes, Writer writer) {
+        JsonConverter.toJson(walletFromBinary(bytes), writer);
+    }
+
+    private static byte[] record(byte type, RecordWriter body) {
+
+        RecordWriter record = new RecordWriter(HEADER_LENGTH + 5 + body.length);
+        record.write(MAGIC, 0, MAGIC.length);
+        record.writeByte(VERSION);
+        record.writeByte(type);
+        record.writeBytes(body.bytes, body.length);
+
+        return record.toByteArray();
+    }
+
+    private static ByteBuffer body(byte[] bytes, byte type) {
+        checkNotNull(bytes);
+
+        if (bytes.length < HEADER_LENGTH || !Arrays.equals(Arrays.copyOf(bytes, MAGIC.length), MAGIC)) {
+            throw new IllegalArgumentException("Not a binary key record");
+        }
+        if (bytes[MAGIC.length] < 1 || bytes[MAGIC.length] > VERSION) {
+            throw new IllegalArgumentException("Unknown binary record version " + bytes[MAGIC.length]);
+        }
+        if (bytes[MAGIC.length + 1] != type) {
+            throw new IllegalArgumentException("Expected record type " + type + " but found " + bytes[MAGIC.length + 1]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+        try {
+            int length = readInt(buffer);
+            if (length != buffer.remaining()) {
+                throw new IllegalArgumentException("Record length " + length + " but " + buffer.remaining() + " bytes");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated record header", e);
+        }
+
+        return buffer;
+    }
+
+    private static void checkEnd(ByteBuffer buffer) {
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException(buffer.remaining() + " unexpected bytes at the end of the record");
+        }
+    }
+
+    private static void writeKey(RecordWriter out, DeterministicKeyChainEntity key) {
+
+        EncryptedData encrypted = key.getEncrypted();
+        EncryptedData seedEncrypted = key.getSeedEncrypted();
+
+        out.writeBytes(key.getPub());
+        out.writeLong(key.getCreated());
+        out.writeByte((encrypted != null ? HAS_ENCRYPTED : 0) | (seedEncrypted != null ? HAS_SEED_ENCRYPTED : 0));
+        if (encrypted != null) {
+            writeEncryptedData(out, encrypted);
+        }
+        if (seedEncrypted != null) {
+            writeEncryptedData(out, seedEncrypted);
+        }
+    }
+
+    private static DeterministicKeyChainEntity readKey(ByteBuffer in) {
+
+        byte[] pub = readBytes(in);
+        long created = readLong(in);
+        int flags = in.get();
+        EncryptedData encrypted = (flags & HAS_ENCRYPTED) != 0 ? readEncryptedData(in) : null;
+        EncryptedData seedEncrypted = (flags & HAS_SEED_ENCRYPTED) != 0 ? readEncryptedData(in) : null;
+
+        return new DeterministicKeyChainEntity(pub, created, encrypted, seedEncrypted);
+    }
+
+    private static void writeEncryptedData(RecordWriter out, EncryptedData encryptedData) {
+
+        if ("AES".equals(encryptedData.getCipher()) && "CBC".equals(encryptedData.getMode())
+                && encryptedData.getKs() == 256 && encryptedData.getBs() == 128) {
+            out.writeByte(SUITE_AES_256_CBC_128);
+        } else {
+            out.writeByte(SUITE_EXPLICIT);
+            out.writeBytes(encryptedData.getCipher().getBytes(StandardCharsets.UTF_8));
+            out.writeLong(encryptedData.getKs());
+            out.writeBytes(encryptedData.getMode().getBytes(StandardCharsets.UTF_8));
+            out.writeLong(encryptedData.getBs());
+        }
+        out.writeBytes(encryptedData.getIv());
+        out.writeLong(encryptedData.getIter());
+        out.writeBytes(encryptedData.getSalt());
+        out.writeLong(encryptedData.getSl());
+        out.writeBytes(encryptedData.getData());
+        out.writeLong(encryptedData.getR());
+        out.writeLong(encryptedData.getP());
+    }
+
+    private static EncryptedData readEncryptedData(ByteBuffer in) {
+
+        String cipher = "AES";
+        int ks = 256;
+        String mode = "CBC";
+        int bs = 128;
+
+        int suite = in.get();
+        if (suite == SUITE_EXPLICIT) {
+            cipher = new String(readBytes(in), StandardCharsets.UTF_8);
+            ks = readInt(in);
+            mode = new String(readBytes(in), StandardCharsets.UTF_8);
+            bs = readInt(in);
+        } else if (suite != SUITE_AES_256_CBC_128) {
+            throw new IllegalArgumentException("Unknown cipher suite " + suite);
+        }
+
+        byte[] iv = readBytes(in);
+        long iter = readLong(in);
+        byte[] salt = readBytes(in);
+        int sl = readInt(in);
+        byte[] data = readBytes(in);
+
+        EncryptedData encryptedData = new EncryptedData(iv, iter, cipher, ks, mode, bs, salt, sl, data);
+        encryptedData.setR(readInt(in));
+        encryptedData.setP(readInt(in));
+
+        return encryptedData;
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = readInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Field length " + length + " exceeds the record");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static int readInt(ByteBuffer in) {
+        long value = readLong(in);
+        if (value != (int) value) {
+            throw new IllegalArgumentException("Value " + value + " out of int range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Zig-zag varint, so small negative values are short too
+     */
+    private static long readLong(ByteBuffer in) {
+        long raw = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            raw |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (raw >>> 1) ^ -(raw & 1);
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * A growable byte array, cheaper than a stream for small records
+     */
+    private static final class RecordWriter {
+
+        private byte[] bytes;
+        private int length;
+
+        private RecordWriter(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        private void writeByte(int b) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) b;
+        }
+
+        private void write(byte[] source, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(source, offset, bytes, length, count);
+            length += count;
+        }
+
+        private void writeBytes(byte[] source) {
+            writeBytes(source, source.length);
+        }
+
+        private void writeBytes(byte[] source, int count) {
+            writeLong(count);
+            write(source, 0, count);
+        }
+
+        private void writeLong(long value) {
+            long raw = (value << 1) ^ (value >> 63);
+            ensureCapacity(10);
+            while ((raw & ~0x7fL) != 0) {
+                bytes[length++] = (byte) ((raw & 0x7f) | 0x80);
+                raw >>>= 7;
+            }
+            bytes[length++] = (byte) raw;
+        }
+
+        private void ensureCapacity(int count) {
+            if (length + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+        }
+    }
+}
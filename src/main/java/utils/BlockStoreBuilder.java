@@ -1,26 +1,57 @@
 package utils;
 
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.CheckpointManager;
 import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.MemoryBlockStore;
 import org.bitcoinj.store.SPVBlockStore;
+import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 
 /**
  * Created by david on 14/07/15.
  */
 public class BlockStoreBuilder {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockStoreBuilder.class);
+
+    public static final String SPV_CHAIN_FILE = "blockstore.spvchain";
+
+    /**
+     * How a block store and a wallet were made to agree before syncing
+     */
+    public enum SyncStart {
+        /* the wallet saw the chain head of the store */
+        RESUMED,
+        /* the wallet is behind, the store went back to the last block the wallet saw */
+        ROLLED_BACK,
+        /* they do not agree, the wallet and the store start again from genesis */
+        FULL_REPLAY
+    }
+
     public static SPVBlockStore createSPVStore(NetworkParameters params) throws BlockStoreException, IOException {
+        return createSPVStore(params, new File(SPV_CHAIN_FILE));
+    }
 
-        //File chainFile = new File(".", "blockstore" + ".spvchain");
-        File chainFile = new File("blockstore.spvchain");
-        if (chainFile.exists()) {
-            chainFile.delete();
-        }
+    /**
+     * Open the SPV store of chainFile, keeping the headers already downloaded
+     *
+     * @param params
+     * @param chainFile
+     * @return
+     * @throws BlockStoreException
+     */
+    public static SPVBlockStore createSPVStore(NetworkParameters params, File chainFile) throws BlockStoreException {
 
         // Setting up the BlochChain, the BlocksStore and connecting to the network.
         SPVBlockStore chainStore = new SPVBlockStore(params, chainFile);
@@ -32,4 +63,81 @@ public class BlockStoreBuilder {
         return new MemoryBlockStore(params);
     }
 
+    /**
+     * Check that the wallet and the block store agree, so a sync resumes from the last block the wallet saw.
+     *
+     * The chain head of the store must be the last block seen by the wallet, or one of its descendants, which the
+     * store then goes back to. Otherwise, e.g. a store deleted, a wallet behind further than the store keeps or a
+     * wallet that never synced with a store that did, the wallet is reset and the store goes back to genesis.
+     * Call it before the store and the wallet are added to a BlockChain.
+     *
+     * @param wallet
+     * @param store
+     * @return how the sync starts
+     * @throws BlockStoreException
+     */
+    public static SyncStart resume(Wallet wallet, BlockStore store) throws BlockStoreException {
+
+        StoredBlock head = store.getChainHead();
+        Sha256Hash walletHash = wallet.getLastBlockSeenHash();
+        int walletHeight = wallet.getLastBlockSeenHeight();
+
+        if (walletHash == null ? head.getHeight() == 0 : walletHash.equals(head.getHeader().getHash())) {
+            log.info("Resuming sync at height {}", head.getHeight());
+            return SyncStart.RESUMED;
+        }
+
+        if (walletHash != null && walletHeight < head.getHeight()) {
+            StoredBlock block = head;
+            while (block != null && block.getHeight() > walletHeight) {
+                block = block.getPrev(store);
+            }
+            if (block != null && block.getHeader().getHash().equals(walletHash)) {
+                store.setChainHead(block);
+                log.info("Block store rolled back from height {} to the wallet at {}", head.getHeight(), walletHeight);
+                return SyncStart.ROLLED_BACK;
+            }
+        }
+
+        log.warn("Wallet at height {} and block store at {} do not agree, replaying from genesis",
+                walletHeight, head.getHeight());
+        wallet.reset();
+        Block genesis = store.getParams().getGenesisBlock().cloneAsHeader();
+        StoredBlock storedGenesis = new StoredBlock(genesis, genesis.getWork(), 0);
+        store.put(storedGenesis);
+        store.setChainHead(storedGenesis);
+        return SyncStart.FULL_REPLAY;
+    }
+
+    /**
+     * Start a store at genesis from the newest checkpoint before timeSecs, so the headers before it, older than any
+     * key of the wallet, are not downloaded. A store already past genesis is left as it is.
+     * Call it after resume(), with the earliest key creation time of the wallet.
+     *
+     * @param store
+     * @param checkpoints textual or binary checkpoints, closed once read; null to start from genesis
+     * @param timeSecs
+     * @return the height the store starts from
+     * @throws IOException
+     * @throws BlockStoreException
+     */
+    public static int checkpoint(BlockStore store, InputStream checkpoints, long timeSecs)
+            throws IOException, BlockStoreException {
+
+        int height = store.getChainHead().getHeight();
+        if (checkpoints == null || height > 0 || timeSecs <= 0 || timeSecs == Long.MAX_VALUE) {
+            if (checkpoints != null) {
+                checkpoints.close();
+            }
+            return height;
+        }
+
+        /* CheckpointManager goes back a week from timeSecs for clock drift between the wallet and the blocks */
+        CheckpointManager.checkpoint(store.getParams(), checkpoints, store, timeSecs);
+        height = store.getChainHead().getHeight();
+        log.info("Block store starts from checkpoint at height {}", height);
+
+        return height;
+    }
+
 }
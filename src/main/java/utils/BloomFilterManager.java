@@ -0,0 +1,357 @@
+package utils;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.BloomFilter;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PeerFilterProvider;
+import org.bitcoinj.core.PeerGroup;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Sizes, batches and rate-limits the bloom filter a PeerGroup sends to its peers.
+ *
+ * Every key a MarriedKeyChain derives adds its P2SH script to the filter, and the PeerGroup recalculates the filter
+ * over every wallet and sends it again to every peer on each batch of keys, coins received or high false positive
+ * rate seen during the download. With the peer group of newPeerGroup():
+ * <ul>
+ *     <li>keys are derived in batches of projectedKeys, the addresses expected to be handed out between two
+ *     recalculations, so handing out an address takes one of the keys already in the filter</li>
+ *     <li>the filter is sized for the elements of the wallets plus those of the next batch, so it keeps its false
+ *     positive rate until then</li>
+ *     <li>recalculations asked for within minInterval of the last one are merged into one, run once it is over</li>
+ * </ul>
+ * The transactions of filtered blocks that no wallet wanted are counted as the observed false positive rate. The
+ * download of the peer group and these counters are recorded by Metrics.
+ */
+public class BloomFilterManager implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BloomFilterManager.class);
+
+    public static final int DEFAULT_PROJECTED_KEYS = 50;
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 2000;
+
+    private final double falsePositiveRate;
+    private final int projectedKeys;
+    private final long minIntervalNanos;
+    private final ScheduledExecutorService executor;
+    private final Set<Wallet> wallets = ConcurrentHashMap.newKeySet();
+    private final Headroom headroom = new Headroom();
+
+    private ManagedPeerGroup peerGroup;
+
+    /* the recalculation waiting for minInterval, the strongest mode asked for since the last one */
+    private PeerGroup.FilterRecalculateMode pendingMode;
+    private SettableFuture<BloomFilter> pendingFuture;
+    private long lastRun;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong recalculations = new AtomicLong();
+    private final AtomicLong filteredTransactions = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    public BloomFilterManager() {
+        this(PeerGroup.DEFAULT_BLOOM_FILTER_FP_RATE, DEFAULT_PROJECTED_KEYS, DEFAULT_MIN_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param falsePositiveRate the rate the filter is sized for
+     * @param projectedKeys addresses expected to be handed out between two recalculations, each wallet gets a
+     *                      lookahead of three times it at least
+     * @param minInterval between two recalculations
+     * @param unit
+     */
+    public BloomFilterManager(double falsePositiveRate, int projectedKeys, long minInterval, TimeUnit unit) {
+        checkArgument(falsePositiveRate > 0 && falsePositiveRate < 1, "False positive rate out of (0, 1)");
+        checkArgument(projectedKeys > 0, "Projected keys must be positive");
+        checkArgument(minInterval >= 0, "Negative interval");
+        checkNotNull(unit);
+
+        this.falsePositiveRate = falsePositiveRate;
+        this.projectedKeys = projectedKeys;
+        this.minIntervalNanos = unit.toNanos(minInterval);
+        this.lastRun = System.nanoTime() - minIntervalNanos;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("bloom-filter-%d").setDaemon(true).build());
+    }
+
+    /**
+     * The PeerGroup whose filter is managed, its wallets are added to it as usual. One per manager.
+     *
+     * @param params
+     * @param chain
+     * @return
+     */
+    public synchronized PeerGroup newPeerGroup(NetworkParameters params, AbstractBlockChain chain) {
+        checkState(peerGroup == null, "Peer group already created");
+
+        peerGroup = new ManagedPeerGroup(params, chain);
+        peerGroup.addPeerFilterProvider(headroom);
+        peerGroup.setBloomFilterFalsePositiveRate(falsePositiveRate);
+        /* after the chain and the wallets got the block, so a transaction no wallet has is a false positive */
+        peerGroup.addBlocksDownloadedEventListener(Threading.SAME_THREAD, (peer, block, filteredBlock, blocksLeft) -> {
+            if (filteredBlock != null) {
+                countFalsePositives(filteredBlock);
+            }
+        });
+        Metrics.monitor(peerGroup, chain);
+        Metrics.monitor(this);
+
+        return peerGroup;
+    }
+
+    /**
+     * @return recalculations asked for by the peer group
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return recalculations run, each sending the filter to the peers if it changed
+     */
+    public long getRecalculations() {
+        return recalculations.get();
+    }
+
+    public long getFilteredTransactions() {
+        return filteredTransactions.get();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    /**
+     * @return false positives over the transactions of every filtered block so far, to compare with the rate the
+     * filter is sized for
+     */
+    public double getObservedFalsePositiveRate() {
+        long transactions = filteredTransactions.get();
+        return transactions == 0 ? 0 : (double) falsePositives.get() / transactions;
+    }
+
+    /**
+     * @return the rate of recent blocks kept by the chain, the one the peer group refreshes the filter on
+     */
+    public double getRecentFalsePositiveRate() {
+        checkState(peerGroup != null, "No peer group");
+        return peerGroup.chain.getFalsePositiveRate();
+    }
+
+    /**
+     * Stop rate-limiting, a recalculation waiting runs now and the peer group recalculates at once from then on
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        synchronized (this) {
+            if (pendingMode != null) {
+                forward(pendingMode, pendingFuture);
+                pendingMode = null;
+                pendingFuture = null;
+            }
+        }
+    }
+
+    /**
+     * Derive keys in batches of projectedKeys, before the wallet is added to the filter
+     */
+    private void prepare(Wallet wallet) {
+        /* keys are derived once a default threshold of a third of the lookahead is issued. A MarriedKeyChain passes
+           the lookahead on to its following chains but not the threshold, so only the lookahead is set */
+        int lookahead = Math.max(wallet.getKeyChainGroupLookaheadSize(), 3 * projectedKeys);
+        wallet.setKeyChainGroupLookaheadSize(lookahead);
+        wallets.add(wallet);
+    }
+
+    private synchronized ListenableFuture<BloomFilter> request(PeerGroup.FilterRecalculateMode mode) {
+        requests.incrementAndGet();
+        if (executor.isShutdown()) {
+            /* closed, the peer group recalculates on its own */
+            return peerGroup.recalculate(mode);
+        }
+        if (pendingMode == null) {
+            pendingMode = mode;
+            pendingFuture = SettableFuture.create();
+            long delay = Math.max(0, lastRun + minIntervalNanos - System.nanoTime());
+            executor.schedule(this::recalculate, delay, TimeUnit.NANOSECONDS);
+        } else if (rank(mode) > rank(pendingMode)) {
+            pendingMode = mode;
+        }
+        return pendingFuture;
+    }
+
+    private void recalculate() {
+
+        PeerGroup.FilterRecalculateMode mode;
+        SettableFuture<BloomFilter> future;
+        synchronized (this) {
+            mode = pendingMode;
+            future = pendingFuture;
+            pendingMode = null;
+            pendingFuture = null;
+            lastRun = System.nanoTime();
+        }
+
+        headroom.update();
+        recalculations.incrementAndGet();
+        log.info("Bloom filter recalculated ({}), {} requests, {} recalculations, headroom {} elements, "
+                        + "observed false positive rate {} for {}", mode, requests.get(), recalculations.get(),
+                headroom.elements, getObservedFalsePositiveRate(), falsePositiveRate);
+
+        forward(mode, future);
+    }
+
+    private void forward(PeerGroup.FilterRecalculateMode mode, SettableFuture<BloomFilter> future) {
+        Futures.addCallback(peerGroup.recalculate(mode), new FutureCallback<BloomFilter>() {
+            @Override
+            public void onSuccess(BloomFilter filter) {
+                future.set(filter);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                future.setException(t);
+            }
+        });
+    }
+
+    private void countFalsePositives(FilteredBlock filteredBlock) {
+        for (Sha256Hash hash : filteredBlock.getTransactionHashes()) {
+            filteredTransactions.incrementAndGet();
+            boolean wanted = false;
+            for (Wallet wallet : wallets) {
+                if (wallet.getTransaction(hash) != null) {
+                    wanted = true;
+                    break;
+                }
+            }
+            if (!wanted) {
+                falsePositives.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A forced refresh sends the filter even if unchanged, a send if changed sends it when needed
+     */
+    private static int rank(PeerGroup.FilterRecalculateMode mode) {
+        switch (mode) {
+            case FORCE_SEND_FOR_REFRESH:
+                return 2;
+            case SEND_IF_CHANGED:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * A PeerGroup asking the manager for its recalculations
+     */
+    private class ManagedPeerGroup extends PeerGroup {
+
+        private final AbstractBlockChain chain;
+
+        ManagedPeerGroup(NetworkParameters params, AbstractBlockChain chain) {
+            super(params, chain);
+            this.chain = chain;
+        }
+
+        @Override
+        public void addWallet(Wallet wallet) {
+            prepare(wallet);
+            super.addWallet(wallet);
+        }
+
+        @Override
+        public void removeWallet(Wallet wallet) {
+            super.removeWallet(wallet);
+            wallets.remove(wallet);
+        }
+
+        @Override
+        public ListenableFuture<BloomFilter> recalculateFastCatchupAndFilter(FilterRecalculateMode mode) {
+            return request(mode);
+        }
+
+        ListenableFuture<BloomFilter> recalculate(FilterRecalculateMode mode) {
+            return super.recalculateFastCatchupAndFilter(mode);
+        }
+    }
+
+    /**
+     * Empty elements for the keys of the next batch of every wallet, so the merged filter is sized for them
+     */
+    private class Headroom implements PeerFilterProvider {
+
+        private volatile int elements;
+
+        void update() {
+            int total = 0;
+            for (Wallet wallet : wallets) {
+                DeterministicKeyChain keyChain = wallet.getActiveKeyChain();
+                /* entries first, it derives the keys of the lookahead still missing */
+                int entries = keyChain.numBloomFilterEntries();
+                int keys = keyChain.getLeafKeys().size();
+                if (keys > 0) {
+                    /* P2SH scripts and keys of every married key, or the keys of a plain chain */
+                    total += projectedKeys * entries / keys;
+                }
+            }
+            elements = total;
+        }
+
+        @Override
+        public long getEarliestKeyCreationTime() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public void beginBloomFilterCalculation() {
+        }
+
+        @Override
+        public int getBloomFilterElementCount() {
+            return elements;
+        }
+
+        @Override
+        public BloomFilter getBloomFilter(int size, double falsePositiveRate, long nTweak) {
+            return new BloomFilter(size, falsePositiveRate, nTweak);
+        }
+
+        @Override
+        public boolean isRequiringUpdateAllBloomFilter() {
+            return false;
+        }
+
+        @Override
+        public void endBloomFilterCalculation() {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package utils;
+
+import org.bitcoinj.core.CheckpointManager;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Checkpoints files in the textual format CheckpointManager reads:
+ *
+ *  TXT CHECKPOINTS 1 | number of signatures (0) | number of checkpoints | one base64 compact StoredBlock per line
+ *
+ * A checkpoint must be the first block of a difficulty interval, so the headers following it can be checked
+ * against the previous transition point without the blocks before it.
+ */
+public class CheckpointsBuilder {
+
+    public static final String TEXTUAL_MAGIC = "TXT CHECKPOINTS 1";
+
+    /**
+     * The blocks of the main chain of a store at a difficulty transition, oldest first
+     *
+     * @param store
+     * @return as far back as the store keeps headers, SPVBlockStore keeps the last few thousands
+     * @throws BlockStoreException
+     */
+    public static List<StoredBlock> collect(BlockStore store) throws BlockStoreException {
+
+        int interval = store.getParams().getInterval();
+        List<StoredBlock> checkpoints = new ArrayList<>();
+        for (StoredBlock block = store.getChainHead(); block != null && block.getHeight() > 0;
+             block = block.getPrev(store)) {
+            if (block.getHeight() % interval == 0) {
+                checkpoints.add(block);
+            }
+        }
+        Collections.reverse(checkpoints);
+
+        return checkpoints;
+    }
+
+    /**
+     * Write checkpoints, oldest first, without signatures
+     *
+     * @param checkpoints
+     * @param writer
+     * @throws IOException
+     */
+    public static void writeTextual(List<StoredBlock> checkpoints, Writer writer) throws IOException {
+        checkArgument(!checkpoints.isEmpty(), "no checkpoints");
+
+        writer.write(TEXTUAL_MAGIC + "\n");
+        writer.write("0\n");
+        writer.write(checkpoints.size() + "\n");
+        ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+        for (StoredBlock block : checkpoints) {
+            buffer.clear();
+            block.serializeCompact(buffer);
+            writer.write(CheckpointManager.BASE64.encode(buffer.array()) + "\n");
+        }
+        writer.flush();
+    }
+}
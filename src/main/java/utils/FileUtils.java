@@ -1,40 +1,171 @@
 package utils;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Created by david on 6/07/15.
  */
 public class FileUtils {
 
-    public static void create(String fileName, String data){
+    /* key files are not worth keeping if a crash can lose them */
+    public static final FsyncPolicy DEFAULT_FSYNC_POLICY = FsyncPolicy.FILE_AND_DIRECTORY;
 
-        try {
-            //write converted json data to a file named "file.json"
-            FileWriter writer = new FileWriter(fileName);
-            writer.write(data);
-            writer.close();
+    private static final String TMP_SUFFIX = ".tmp";
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Write data as UTF-8, replacing the file atomically, forced to disk as DEFAULT_FSYNC_POLICY says
+     * @param fileName
+     * @param data
+     * @throws IOException
+     */
+    public static void create(String fileName, String data) throws IOException {
+
+        write(Paths.get(fileName), data.getBytes(StandardCharsets.UTF_8), DEFAULT_FSYNC_POLICY);
+    }
+
+    /**
+     * Write data to a temporary file of the same directory and rename it to path, so readers and a crash see
+     * the old or the new content but never a part of it
+     * @param path
+     * @param data
+     * @param fsyncPolicy
+     * @throws IOException
+     */
+    public static void write(Path path, byte[] data, FsyncPolicy fsyncPolicy) throws IOException {
+
+        moveIntoPlace(writeTemp(path, data, fsyncPolicy.forceFile()), path);
+
+        if (fsyncPolicy.forceDirectory()) {
+            forceDirectory(path);
         }
+    }
+
+    /**
+     * A UTF-8 writer that replaces the file atomically when it is committed
+     * @param fileName
+     * @param fsyncPolicy
+     * @return
+     * @throws IOException
+     */
+    public static AtomicFileWriter newAtomicWriter(String fileName, FsyncPolicy fsyncPolicy) throws IOException {
 
+        return new AtomicFileWriter(Paths.get(fileName), fsyncPolicy);
     }
 
-    public static String readFile(String path, Charset encoding)
-    {
-        byte[] encoded = new byte[0];
+    /**
+     * A UTF-8 writer straight to the file channel, creating or truncating the file
+     * @param fileName
+     * @return
+     * @throws IOException
+     */
+    public static Writer newWriter(String fileName) throws IOException {
+
+        return Channels.newWriter(FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), StandardCharsets.UTF_8.newEncoder(), -1);
+    }
+
+    /**
+     * A UTF-8 reader straight from the file channel
+     * @param fileName
+     * @return
+     * @throws IOException
+     */
+    public static Reader newReader(String fileName) throws IOException {
+
+        return Channels.newReader(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ),
+                StandardCharsets.UTF_8.newDecoder(), -1);
+    }
+
+    public static String readFile(String path, Charset encoding) throws IOException {
+
+        return new String(Files.readAllBytes(Paths.get(path)), encoding);
+    }
+
+    /**
+     * Write data to a new temporary file next to path
+     * @param path
+     * @param data
+     * @param force force the content to disk
+     * @return the temporary file
+     * @throws IOException
+     */
+    static Path writeTemp(Path path, byte[] data, boolean force) throws IOException {
+
+        Path tmp = newTempFile(path);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        return tmp;
+    }
+
+    /**
+     * A new empty file in the directory of path, so it can be renamed to path atomically
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    static Path newTempFile(Path path) throws IOException {
+
+        return Files.createTempFile(directory(path), "." + path.getFileName() + ".", TMP_SUFFIX);
+    }
+
+    /**
+     * Rename tmp to path, replacing it, deleting tmp if it fails
+     * @param tmp
+     * @param path
+     * @throws IOException
+     */
+    static void moveIntoPlace(Path tmp, Path path) throws IOException {
 
         try {
-            encoded = Files.readAllBytes(Paths.get(path));
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
-            e.printStackTrace();
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * Force the directory entries of the directory of path, so renames in it survive a crash
+     * @param path
+     * @throws IOException
+     */
+    static void forceDirectory(Path path) throws IOException {
+
+        /* directories can not be opened on Windows, where a rename is durable once done */
+        if (System.getProperty("os.name").startsWith("Windows")) {
+            return;
+        }
+        try (FileChannel directory = FileChannel.open(directory(path), StandardOpenOption.READ)) {
+            directory.force(true);
         }
+    }
+
+    static Path directory(Path path) {
 
-        return new String(encoded, encoding);
+        Path parent = path.toAbsolutePath().getParent();
+        return parent != null ? parent : Paths.get(".").toAbsolutePath();
     }
 }
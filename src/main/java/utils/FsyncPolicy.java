@@ -0,0 +1,33 @@
+package utils;
+
+/**
+ * How far a file write is forced to disk before it is reported as done.
+ *
+ * Files are always written to a temporary file and renamed into place, so a crash never leaves a partial file;
+ * the policy decides whether the new content and the rename itself survive a crash of the machine.
+ */
+public enum FsyncPolicy {
+
+    /* left to the OS, a crash can lose the latest files or bring back an older version */
+    NONE(false, false),
+    /* content forced before the rename, a crash can still lose the rename */
+    FILE(true, false),
+    /* content and the directory entry forced, the file survives a crash once written */
+    FILE_AND_DIRECTORY(true, true);
+
+    private final boolean forceFile;
+    private final boolean forceDirectory;
+
+    FsyncPolicy(boolean forceFile, boolean forceDirectory) {
+        this.forceFile = forceFile;
+        this.forceDirectory = forceDirectory;
+    }
+
+    public boolean forceFile() {
+        return forceFile;
+    }
+
+    public boolean forceDirectory() {
+        return forceDirectory;
+    }
+}
@@ -0,0 +1,229 @@
+package utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Atomic file writes committed in groups on one thread.
+ *
+ * Writes submitted from any thread are taken in batches of up to maxBatch files, waiting at most maxDelayMillis for
+ * a batch to fill. Every file of a batch is written to a temporary file and forced, then all of them are renamed
+ * into place and every directory of the batch is forced once, so a batch of small key files in one directory costs
+ * one directory fsync instead of one per file. A write completes when its batch is durable as the fsync policy says.
+ */
+public class GroupCommitWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    private final FsyncPolicy fsyncPolicy;
+    private final int maxBatch;
+    private final long maxDelayMillis;
+    /* queued by close() after the last write */
+    private static final PendingWrite STOP = new PendingWrite(null, null);
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    /* submitted and not completed yet, failed by close() if the committer does not finish them */
+    private final Set<PendingWrite> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService committer;
+    private boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * @param fsyncPolicy
+     * @param maxBatch files committed together at most
+     * @param maxDelayMillis time a write waits for others to join its batch
+     */
+    public GroupCommitWriter(FsyncPolicy fsyncPolicy, int maxBatch, long maxDelayMillis) {
+        checkNotNull(fsyncPolicy);
+        checkArgument(maxBatch > 0, "maxBatch must be positive");
+        checkArgument(maxDelayMillis >= 0, "maxDelayMillis can not be negative");
+
+        this.fsyncPolicy = fsyncPolicy;
+        this.maxBatch = maxBatch;
+        this.maxDelayMillis = maxDelayMillis;
+        this.committer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("group-commit-%d").setDaemon(true).build());
+        this.committer.execute(this::run);
+    }
+
+    /**
+     * Replace a file with data
+     *
+     * @param path
+     * @param data
+     * @return completed when the file is durable, or exceptionally with the IOException of the write
+     */
+    public synchronized CompletableFuture<Void> submit(Path path, byte[] data) {
+        checkNotNull(path);
+        checkNotNull(data);
+        checkState(!closed, "writer closed");
+
+        PendingWrite write = new PendingWrite(path, data);
+        pending.add(write);
+        write.future.whenComplete((result, e) -> pending.remove(write));
+        queue.add(write);
+        return write.future;
+    }
+
+    /**
+     * Commit the pending writes and stop
+     *
+     * @throws IOException the first error of the writes since the writer was created, or if the pending writes are
+     * not committed within a minute or the thread is interrupted, failing them
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                queue.add(STOP);
+                committer.shutdown();
+            }
+        }
+        try {
+            if (!committer.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw abandon(new IOException("Writes not committed in a minute"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw abandon(new InterruptedIOException("Interrupted waiting for the writes to be committed"));
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatch);
+        boolean stop = false;
+        try {
+            while (!stop) {
+                PendingWrite first = queue.take();
+                stop = first == STOP;
+                if (!stop) {
+                    batch.add(first);
+                }
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (!stop && batch.size() < maxBatch) {
+                    PendingWrite write = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (write == null) {
+                        break;
+                    }
+                    stop = write == STOP;
+                    if (!stop) {
+                        batch.add(write);
+                    }
+                }
+
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commit(List<PendingWrite> batch) {
+
+        long start = System.nanoTime();
+
+        /* content of every file */
+        List<PendingWrite> written = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            try {
+                write.tmp = FileUtils.writeTemp(write.path, write.data, fsyncPolicy.forceFile());
+                written.add(write);
+            } catch (IOException e) {
+                fail(write, e);
+            }
+        }
+
+        /* then the renames, a directory forced once for all its files */
+        Map<Path, List<PendingWrite>> directories = new LinkedHashMap<>();
+        for (PendingWrite write : written) {
+            try {
+                FileUtils.moveIntoPlace(write.tmp, write.path);
+                directories.computeIfAbsent(FileUtils.directory(write.path), d -> new ArrayList<>()).add(write);
+            } catch (IOException e) {
+                fail(write, e);
+            }
+        }
+
+        for (List<PendingWrite> writes : directories.values()) {
+            try {
+                if (fsyncPolicy.forceDirectory()) {
+                    FileUtils.forceDirectory(writes.get(0).path);
+                }
+                for (PendingWrite write : writes) {
+                    write.future.complete(null);
+                }
+            } catch (IOException e) {
+                for (PendingWrite write : writes) {
+                    fail(write, e);
+                }
+            }
+        }
+
+        log.debug("Committed {} files in {} directories in {} us", batch.size(), directories.size(),
+                (System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * Stop the committer and fail the writes it did not complete
+     */
+    private IOException abandon(IOException e) {
+        committer.shutdownNow();
+        log.error("{} writes not committed", pending.size(), e);
+        for (PendingWrite write : pending) {
+            write.future.completeExceptionally(e);
+        }
+        return e;
+    }
+
+    private void fail(PendingWrite write, IOException e) {
+        log.error("Can not write {}", write.path, e);
+        if (failure == null) {
+            failure = e;
+        }
+        write.future.completeExceptionally(e);
+    }
+
+    private static final class PendingWrite {
+
+        private final Path path;
+        private final byte[] data;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private Path tmp;
+
+        private PendingWrite(Path path, byte[] data) {
+            this.path = path;
+            this.data = data;
+        }
+    }
+}
@@ -1,89 +1,297 @@
 package utils;
 
-import com.google.gson.*;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import domain.DeterministicKeyChainEntity;
 import domain.WalletEntity;
-import domain.mapper.KeyMapper;
-import domain.mapper.WalletMapper;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import domain.mapper.KeyTypeAdapter;
+import domain.mapper.WalletTypeAdapter;
 
-import java.lang.reflect.Type;
-import java.util.Base64;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Created by david on 5/07/15.
  */
 public class JsonConverter {
 
-    private static final Logger log = LoggerFactory.getLogger(JsonConverter.class);
+    /* stateless adapters, shared by every thread */
+    private static final KeyTypeAdapter keyAdapter = new KeyTypeAdapter(true);
+    private static final KeyTypeAdapter publicKeyAdapter = new KeyTypeAdapter(false);
+    private static final WalletTypeAdapter walletAdapter = new WalletTypeAdapter();
+    private static final WalletTypeAdapter provisionedWalletAdapter = new WalletTypeAdapter(false, true);
+    private static final KeyTypeAdapter lazyKeyAdapter = new KeyTypeAdapter(true, true);
+    private static final WalletTypeAdapter lazyWalletAdapter = new WalletTypeAdapter(true);
 
     /**
-     * Convert encrypted key to JSON
+     * Convert encrypted key to a JSON file, replaced atomically and forced to disk
      * @param fileName
      * @param deterministicKeyChainEntity
-     * @return
+     * @param addEncryptedData
+     * @throws IOException
+     */
+    public static void toJson(String fileName, DeterministicKeyChainEntity deterministicKeyChainEntity, boolean addEncryptedData) throws IOException {
+
+        try (AtomicFileWriter writer = FileUtils.newAtomicWriter(fileName, FileUtils.DEFAULT_FSYNC_POLICY)) {
+            (addEncryptedData ? keyAdapter : publicKeyAdapter).write(new JsonWriter(writer), deterministicKeyChainEntity);
+            writer.commit();
+        }
+    }
+
+    /**
+     * Convert wallet info to a JSON file, replaced atomically and forced to disk
+     * @param walletEntity
+     * @param fileName
+     * @throws IOException
      */
-    public static void toJson(String fileName, DeterministicKeyChainEntity deterministicKeyChainEntity, boolean addEncryptedData) {
+    public static void toJson(WalletEntity walletEntity, String fileName) throws IOException {
 
-        String json = new GsonBuilder().disableHtmlEscaping().create().toJson(new KeyMapper(deterministicKeyChainEntity, addEncryptedData));
+        try (AtomicFileWriter writer = FileUtils.newAtomicWriter(fileName, FileUtils.DEFAULT_FSYNC_POLICY)) {
+            walletAdapter.write(new JsonWriter(writer), walletEntity);
+            writer.commit();
+        }
+    }
 
-        FileUtils.create(fileName, json);
+    /**
+     * Convert encrypted key to JSON
+     * @param deterministicKeyChainEntity
+     * @param addEncryptedData
+     * @return
+     */
+    public static String toJson(DeterministicKeyChainEntity deterministicKeyChainEntity, boolean addEncryptedData) {
 
-        log.debug(json);
+        StringWriter writer = new StringWriter();
+        toJson(deterministicKeyChainEntity, addEncryptedData, writer);
+        return writer.toString();
     }
 
     /**
      * Convert wallet info to JSON
      * @param walletEntity
-     * @param fileName
+     * @return
      */
-    public static void toJson(WalletEntity walletEntity, String fileName) {
+    public static String toJson(WalletEntity walletEntity) {
 
-        String json = new GsonBuilder().disableHtmlEscaping().create().toJson(new WalletMapper(walletEntity));
+        StringWriter writer = new StringWriter();
+        toJson(walletEntity, writer);
+        return writer.toString();
+    }
 
-        FileUtils.create(fileName, json);
+    /**
+     * Stream encrypted key as JSON to a writer
+     * @param deterministicKeyChainEntity
+     * @param addEncryptedData
+     * @param writer
+     */
+    public static void toJson(DeterministicKeyChainEntity deterministicKeyChainEntity, boolean addEncryptedData, Writer writer) {
 
-        log.debug(json);
+        try {
+            (addEncryptedData ? keyAdapter : publicKeyAdapter).write(new JsonWriter(writer), deterministicKeyChainEntity);
+            writer.flush();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
     }
 
-    public static DeterministicKeyChainEntity keyFromJson(String json){
+    /**
+     * Stream wallet info as JSON to a writer
+     * @param walletEntity
+     * @param writer
+     */
+    public static void toJson(WalletEntity walletEntity, Writer writer) {
 
-        Gson gson = new GsonBuilder().disableHtmlEscaping().registerTypeHierarchyAdapter(byte[].class,
-                new ByteArrayToBase64TypeAdapter())
-                .create();
+        try {
+            walletAdapter.write(new JsonWriter(writer), walletEntity);
+            writer.flush();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
 
-        return gson.fromJson(json, DeterministicKeyChainEntity.class);
+    /**
+     * Stream wallets as NDJSON, one wallet per line with the encrypted data of every key, as fromNdjson reads them
+     * @param walletEntities
+     * @param writer
+     * @throws IOException
+     */
+    public static void toNdjson(Iterator<WalletEntity> walletEntities, Writer writer) throws IOException {
+
+        while (walletEntities.hasNext()) {
+            provisionedWalletAdapter.write(new JsonWriter(writer), walletEntities.next());
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * Iterate lazily the wallets of a NDJSON reader, one at a time in memory
+     * @param reader
+     * @return an iterator that closes the reader when closed
+     */
+    public static WalletIterator fromNdjson(Reader reader) {
+
+        return new WalletIterator(reader);
+    }
+
+    /**
+     * Convert the keys of a provisioned wallet to a single line of JSON, as used in NDJSON files
+     * @param walletName
+     * @param server
+     * @param key
+     * @param backup
+     * @return
+     */
+    public static String toJsonLine(String walletName, DeterministicKeyChainEntity server,
+                                    DeterministicKeyChainEntity key, DeterministicKeyChainEntity backup) {
+
+        StringWriter writer = new StringWriter();
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        try {
+            jsonWriter.beginObject();
+            if (walletName != null) {
+                jsonWriter.name("walletName").value(walletName);
+            }
+            jsonWriter.name("server");
+            keyAdapter.write(jsonWriter, server);
+            jsonWriter.name("key");
+            keyAdapter.write(jsonWriter, key);
+            jsonWriter.name("backup");
+            keyAdapter.write(jsonWriter, backup);
+            jsonWriter.endObject();
+        } catch (IOException e) {
+            /* StringWriter does not throw */
+            throw new JsonIOException(e);
+        }
+
+        return writer.toString();
+    }
+
+    public static DeterministicKeyChainEntity keyFromJson(String json){
+
+        return keyFromJson(new StringReader(json));
     }
 
     public static WalletEntity fromJson(String json){
 
-        Gson gson = new GsonBuilder().disableHtmlEscaping().registerTypeHierarchyAdapter(byte[].class,
-                new ByteArrayToBase64TypeAdapter())
-                .create();
+        return fromJson(new StringReader(json));
+    }
+
+    public static DeterministicKeyChainEntity keyFromJson(Reader reader){
 
-        return gson.fromJson(json, WalletEntity.class);
+        try {
+            return keyAdapter.read(new JsonReader(reader));
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    public static WalletEntity fromJson(Reader reader){
+
+        try {
+            return walletAdapter.read(new JsonReader(reader));
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
     }
 
     /**
-     * @link https://gist.github.com/orip/3635246
-     * Using Android's base64 libraries. This can be replaced with any base64 library.
+     * Read a key keeping its encrypted data encoded until it is accessed
+     * @param reader
+     * @return a LazyDeterministicKeyChainEntity
      */
-    private static class ByteArrayToBase64TypeAdapter implements JsonSerializer<byte[]>, JsonDeserializer<byte[]> {
+    public static DeterministicKeyChainEntity keyFromJsonLazy(Reader reader){
 
-        public byte[] deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+        try {
+            return lazyKeyAdapter.read(new JsonReader(reader));
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
 
-            Base64.Decoder decoder = Base64.getDecoder();
+    /**
+     * Read a wallet keeping the encrypted data of its keys encoded until it is accessed
+     * @param reader
+     * @return a wallet of LazyDeterministicKeyChainEntity
+     */
+    public static WalletEntity fromJsonLazy(Reader reader){
 
-            //return decoder.decode(json.getAsString(), decoder.NO_WRAP);
-            return decoder.decode(json.getAsString());
+        try {
+            return lazyWalletAdapter.read(new JsonReader(reader));
+        } catch (IOException e) {
+            throw new JsonIOException(e);
         }
+    }
 
-        public JsonElement serialize(byte[] src, Type typeOfSrc, JsonSerializationContext context) {
+    /**
+     * Lazy iterator of the wallets in a NDJSON stream, each line parsed strictly on its own, blank lines skipped
+     */
+    public static class WalletIterator implements Iterator<WalletEntity>, Closeable {
+
+        private final BufferedReader reader;
+        private String line;
+        private int lineNumber;
+
+        private WalletIterator(Reader reader) {
+            this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (line == null) {
+                    line = reader.readLine();
+                    if (line == null) {
+                        return false;
+                    }
+                    lineNumber++;
+                    if (line.trim().isEmpty()) {
+                        line = null;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        }
 
-            Base64.Encoder encoder = Base64.getEncoder();
+        /**
+         * @throws JsonSyntaxException if the line is not one wallet in JSON
+         */
+        @Override
+        public WalletEntity next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            JsonReader jsonReader = new JsonReader(new StringReader(line));
+            line = null;
+            try {
+                WalletEntity walletEntity = walletAdapter.read(jsonReader);
+                if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+                    throw new JsonSyntaxException("More than one value at line " + lineNumber);
+                }
+                return walletEntity;
+            } catch (MalformedJsonException | EOFException | IllegalStateException e) {
+                throw new JsonSyntaxException("Malformed wallet at line " + lineNumber, e);
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        }
 
-            return new JsonPrimitive(encoder.encodeToString(src));
+        @Override
+        public void close() throws IOException {
+            reader.close();
         }
     }
 
@@ -0,0 +1,132 @@
+package utils;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.CacheBuilder;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.PeerGroup;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.utils.Threading;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Sync and wallet instrumentation in one Dropwizard MetricRegistry, published over JMX by startJmx(). A Spring Boot
+ * application with the actuator exports it on its metrics endpoint once getRegistry() is its MetricRegistry bean.
+ *
+ * Timers are histograms of durations with their rate:
+ * <ul>
+ *     <li>sync.blocks: meter of the blocks downloaded into the chain, blocks per second</li>
+ *     <li>sync.headers-behind: the most common chain height of the peers minus the chain head</li>
+ *     <li>sync.filtered-block-latency: from a filtered block received to the chain and wallets having it with its
+ *     transactions</li>
+ *     <li>bloom.filtered-transactions, bloom.false-positives and bloom.recalculations of a BloomFilterManager</li>
+ *     <li>wallet.lock-hold: block and transaction calls of the chain to a wallet, each one holding its lock</li>
+ *     <li>wallet.save and wallet.journal-write: whole wallet saves, also holding its lock, and journal writes</li>
+ *     <li>kdf.derive and kdf.admission-wait: scrypt derivations of AESCBCUtils and their wait in the KdfScheduler</li>
+ * </ul>
+ */
+public class Metrics {
+
+    public static final String JMX_DOMAIN = "bitcoinj-examples";
+
+    public static final String BLOCKS = "sync.blocks";
+    public static final String HEADERS_BEHIND = "sync.headers-behind";
+    public static final String FILTERED_BLOCK_LATENCY = "sync.filtered-block-latency";
+    public static final String FILTERED_TRANSACTIONS = "bloom.filtered-transactions";
+    public static final String FALSE_POSITIVES = "bloom.false-positives";
+    public static final String RECALCULATIONS = "bloom.recalculations";
+    public static final String WALLET_LOCK_HOLD = "wallet.lock-hold";
+    public static final String WALLET_SAVE = "wallet.save";
+    public static final String JOURNAL_WRITE = "wallet.journal-write";
+    public static final String KDF_DERIVE = "kdf.derive";
+    public static final String KDF_ADMISSION_WAIT = "kdf.admission-wait";
+
+    /* filtered blocks received whose transactions may still be arriving, bounded for blocks never connected */
+    private static final int MAX_PENDING_BLOCKS = 1000;
+
+    private static final MetricRegistry registry = new MetricRegistry();
+
+    private static JmxReporter jmxReporter;
+
+    public static MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    public static Timer timer(String name) {
+        return registry.timer(name);
+    }
+
+    /**
+     * Publish the metrics as MBeans of JMX_DOMAIN, durations in milliseconds
+     */
+    public static synchronized void startJmx() {
+        if (jmxReporter == null) {
+            jmxReporter = JmxReporter.forRegistry(registry)
+                    .inDomain(JMX_DOMAIN)
+                    .convertDurationsTo(TimeUnit.MILLISECONDS)
+                    .build();
+            jmxReporter.start();
+        }
+    }
+
+    /**
+     * Record the download of a peer group into its chain, in place of the one monitored before
+     *
+     * @param peerGroup
+     * @param chain
+     */
+    public static void monitor(PeerGroup peerGroup, AbstractBlockChain chain) {
+        checkNotNull(peerGroup);
+        checkNotNull(chain);
+
+        Meter blocks = registry.meter(BLOCKS);
+        Timer latency = registry.timer(FILTERED_BLOCK_LATENCY);
+        Map<Sha256Hash, Long> received = CacheBuilder.newBuilder()
+                .maximumSize(MAX_PENDING_BLOCKS)
+                .<Sha256Hash, Long>build()
+                .asMap();
+
+        /* on the thread of the peer, before it waits for the transactions of the block */
+        peerGroup.addPreMessageReceivedEventListener(Threading.SAME_THREAD, (peer, m) -> {
+            if (m instanceof FilteredBlock) {
+                received.put(((FilteredBlock) m).getHash(), System.nanoTime());
+            }
+            return m;
+        });
+        peerGroup.addBlocksDownloadedEventListener(Threading.SAME_THREAD, (peer, block, filteredBlock, blocksLeft) -> {
+            blocks.mark();
+            Long start = received.remove(block.getHash());
+            if (start != null) {
+                latency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        });
+
+        register(HEADERS_BEHIND, () -> Math.max(0, peerGroup.getMostCommonChainHeight() - chain.getBestChainHeight()));
+    }
+
+    /**
+     * Publish the counters of a manager, in place of the one monitored before
+     *
+     * @param bloomFilters
+     */
+    public static void monitor(BloomFilterManager bloomFilters) {
+        checkNotNull(bloomFilters);
+
+        register(FILTERED_TRANSACTIONS, bloomFilters::getFilteredTransactions);
+        register(FALSE_POSITIVES, bloomFilters::getFalsePositives);
+        register(RECALCULATIONS, bloomFilters::getRecalculations);
+    }
+
+    private static synchronized <T> void register(String name, Gauge<T> gauge) {
+        registry.remove(name);
+        registry.register(name, gauge);
+    }
+}
@@ -0,0 +1,140 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An append-only file of JSON records, one per line (NDJSON).
+ *
+ * When it is opened, a trailing incomplete line left by a crash is truncated, so the file always ends with the
+ * last complete record and getCount() tells from which record a job has to resume.
+ * Records are buffered and the file is forced to disk every syncEvery records and on close.
+ */
+public class NdjsonFileSink implements Closeable {
+
+    private static final byte NEW_LINE = '\n';
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final int syncEvery;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long count;
+    private int unsynced;
+
+    /**
+     * Open or create the file, recovering the records already written
+     *
+     * @param path
+     * @param syncEvery records appended between two fsync
+     * @throws IOException
+     */
+    public NdjsonFileSink(Path path, int syncEvery) throws IOException {
+
+        checkNotNull(path);
+        checkArgument(syncEvery > 0, "syncEvery must be positive");
+
+        this.syncEvery = syncEvery;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        recover();
+    }
+
+    /**
+     * Number of complete records in the file
+     *
+     * @return
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Append a record, it must not contain new lines
+     *
+     * @param json
+     * @throws IOException
+     */
+    public synchronized void append(String json) throws IOException {
+
+        byte[] line = json.getBytes(StandardCharsets.UTF_8);
+        checkArgument(json.indexOf('\n') < 0, "a record can not contain new lines");
+
+        if (buffer.remaining() < line.length + 1) {
+            writeBuffer();
+            if (buffer.capacity() < line.length + 1) {
+                buffer = ByteBuffer.allocate(line.length + 1);
+            }
+        }
+        buffer.put(line).put(NEW_LINE);
+
+        count++;
+        if (++unsynced >= syncEvery) {
+            sync();
+        }
+    }
+
+    /**
+     * Write buffered records and force them to disk
+     *
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        unsynced = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Count complete lines and truncate after the last one
+     */
+    private void recover() throws IOException {
+
+        long lastLineEnd = 0;
+        long position = 0;
+        ByteBuffer read = ByteBuffer.allocate(BUFFER_SIZE);
+
+        channel.position(0);
+        while (channel.read(read) > 0) {
+            read.flip();
+            while (read.hasRemaining()) {
+                position++;
+                if (read.get() == NEW_LINE) {
+                    count++;
+                    lastLineEnd = position;
+                }
+            }
+            read.clear();
+        }
+
+        if (lastLineEnd < channel.size()) {
+            channel.truncate(lastLineEnd);
+        }
+        channel.position(lastLineEnd);
+    }
+}
@@ -1,49 +1,71 @@
 package utils;
 
 import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.CheckpointManager;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.PeerGroup;
 import org.bitcoinj.params.RegTestParams;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
-import org.bitcoinj.store.SPVBlockStore;
 import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Creates a PeerGroup with BlockStore file
  */
 public class PeerGroupBuilder {
 
+    private static final Logger log = LoggerFactory.getLogger(PeerGroupBuilder.class);
+
+    /**
+     * Sync from the checkpoints bundled with bitcoinj for params, none for regtest
+     */
     public static PeerGroup sincronize(Wallet wallet, NetworkParameters params, boolean inMemory) throws IOException, BlockStoreException {
+        return sincronize(wallet, params, inMemory, CheckpointManager.openStream(params));
+    }
 
-        // Reset transactions
-        wallet.clearTransactions(0);
+    /**
+     * @param wallet
+     * @param params
+     * @param inMemory
+     * @param checkpoints a new block store starts from the newest one before the keys of the wallet; may be null
+     * @return
+     * @throws IOException
+     * @throws BlockStoreException
+     */
+    public static PeerGroup sincronize(Wallet wallet, NetworkParameters params, boolean inMemory,
+                                       InputStream checkpoints) throws IOException, BlockStoreException {
 
-        BlockChain chain = null;
+        BlockStore blockStore;
 
         /* define block storage: in-memory, SPV store, postgreSQL, etc */
         if(inMemory) {
             // In memory
-            BlockStore blockStore = BlockStoreBuilder.createMemoryStore(params);
-
-            /* create blockchain instance with blockstore */
-            chain = new BlockChain(params, wallet, blockStore);
+            blockStore = BlockStoreBuilder.createMemoryStore(params);
         }else {
-            // In file
-            SPVBlockStore blockStore = BlockStoreBuilder.createSPVStore(params);
-
-            /* create blockchain instance with blockstore */
-            chain = new BlockChain(params, wallet, blockStore);
+            // In file, kept between runs
+            blockStore = BlockStoreBuilder.createSPVStore(params);
         }
 
+        /* resume from the last block the wallet saw, a full replay only if the wallet and the store disagree */
+        BlockStoreBuilder.resume(wallet, blockStore);
+
+        /* no headers older than the keys of the wallet, a new or replayed store starts from a checkpoint */
+        BlockStoreBuilder.checkpoint(blockStore, checkpoints, wallet.getEarliestKeyCreationTime());
+
+        /* create blockchain instance with blockstore */
+        BlockChain chain = new BlockChain(params, wallet, blockStore);
+
         /* create peer group to download the blockchain */
         PeerGroup peerGroup = new PeerGroup(params, chain);
 
-        /* add wallet to this peer group */
+        /* add wallet to this peer group, the chain has it already */
         peerGroup.addWallet(wallet);
-        chain.addWallet(wallet);
 
         /* if regtest, connect the peer group to localhost */
         if (params == RegTestParams.get()) {
@@ -55,8 +77,11 @@ public class PeerGroupBuilder {
         // Download the block chain and wait until it's done.
         // @link https://code.google.com/p/guava-libraries/wiki/Release15
         // Service guava StartAndWait is deprecated
+        long start = System.nanoTime();
         peerGroup.startAsync();
         peerGroup.downloadBlockChain();
+        log.info("Synced to height {} in {} ms", blockStore.getChainHead().getHeight(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
 
         return peerGroup;
     }
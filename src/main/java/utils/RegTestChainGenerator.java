@@ -0,0 +1,133 @@
+package utils;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.script.ScriptBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Generates regtest chains after genesis, the same blocks for the same arguments.
+ *
+ * Every difficulty interval lasts the target timespan at least, so the difficulty stays at the regtest minimum after
+ * a transition. Payments spend made up outpoints, enough for SPV wallets which do not see the inputs.
+ */
+public class RegTestChainGenerator {
+
+    private static final NetworkParameters PARAMS = RegTestParams.get();
+
+    /**
+     * A chain of blocks paying to miner
+     *
+     * @param blocks
+     * @param startTimeSecs time of the first block, e.g. startTime(blocks)
+     * @param miner
+     * @return the blocks from height 1
+     */
+    public static List<Block> generate(int blocks, long startTimeSecs, Address miner) {
+        return generate(blocks, startTimeSecs, miner, Collections.emptyList(), 0);
+    }
+
+    /**
+     * A chain of blocks paying to miner, with transactions spread evenly over it paying to the addresses in turn
+     *
+     * @param blocks
+     * @param startTimeSecs time of the first block, e.g. startTime(blocks)
+     * @param miner
+     * @param payTo e.g. the married P2SH addresses of a wallet
+     * @param transactions
+     * @return the blocks from height 1
+     */
+    public static List<Block> generate(int blocks, long startTimeSecs, Address miner, List<Address> payTo,
+                                       int transactions) {
+        checkArgument(blocks >= 0, "Negative blocks");
+        checkArgument(transactions >= 0, "Negative transactions");
+        checkArgument(transactions == 0 || (blocks > 0 && !payTo.isEmpty()), "Transactions but nowhere to put them");
+        checkNotNull(miner);
+
+        List<Block> chain = new ArrayList<>(blocks);
+        Block block = PARAMS.getGenesisBlock();
+        int next = 0;
+        for (int height = 1; height <= blocks; height++) {
+            List<Transaction> payments = new ArrayList<>();
+            /* transaction i goes in block 1 + i * blocks / transactions */
+            while (next < transactions && (long) next * blocks / transactions < height) {
+                payments.add(payment(payTo.get(next % payTo.size()), next));
+                next++;
+            }
+            long time = height == 1 ? startTimeSecs : block.getTimeSeconds() + spacing(height);
+            block = nextBlock(block, height, time, miner, payments);
+            chain.add(block);
+        }
+
+        return chain;
+    }
+
+    /**
+     * @param blocks
+     * @return the start time for a chain of blocks ending now, bitcoinj refuses blocks more than two hours ahead
+     */
+    public static long startTime(int blocks) {
+        return System.currentTimeMillis() / 1000 - (long) blocks * PARAMS.getTargetTimespan() / PARAMS.getInterval();
+    }
+
+    /**
+     * The time between the block before height and the one at height, so an interval lasts the target timespan
+     */
+    static long spacing(int height) {
+        int interval = PARAMS.getInterval();
+        long spacing = PARAMS.getTargetTimespan() / interval;
+        return height % interval == interval - 1 ? PARAMS.getTargetTimespan() - (interval - 2) * spacing : spacing;
+    }
+
+    /**
+     * A block after prev with a coinbase paying to miner and the transactions, solved
+     */
+    static Block nextBlock(Block prev, int height, long time, Address miner, List<Transaction> transactions) {
+
+        Transaction coinbase = new Transaction(PARAMS);
+        /* the height pushed as 4 bytes: a coinbase script is 2 bytes at least, and bitcoinj bloom filters fail on
+           the small number opcodes ScriptBuilder.number() uses below 17 */
+        byte[] heightBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(height).array();
+        coinbase.addInput(new TransactionInput(PARAMS, coinbase,
+                new ScriptBuilder().data(heightBytes).build().getProgram()));
+        coinbase.addOutput(Coin.FIFTY_COINS.shiftRight(height / PARAMS.getSubsidyDecreaseBlockCount()), miner);
+
+        List<Transaction> all = new ArrayList<>(transactions.size() + 1);
+        all.add(coinbase);
+        all.addAll(transactions);
+        /* the merkle root is calculated from the transactions */
+        Block block = new Block(PARAMS, Block.BLOCK_VERSION_GENESIS, prev.getHash(), null, time,
+                prev.getDifficultyTarget(), 0, all);
+        block.solve();
+
+        return block;
+    }
+
+    /**
+     * One of the payments of a chain, the same for the same seq
+     */
+    private static Transaction payment(Address address, int seq) {
+
+        Transaction tx = new Transaction(PARAMS);
+        Sha256Hash outpoint = Sha256Hash.of(ByteBuffer.allocate(4).putInt(seq).array());
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[0], new TransactionOutPoint(PARAMS, 0, outpoint)));
+        tx.addOutput(Coin.CENT.multiply(1 + seq % 100), address);
+
+        return tx;
+    }
+}
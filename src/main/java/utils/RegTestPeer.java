@@ -0,0 +1,361 @@
+package utils;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BloomFilter;
+import org.bitcoinj.core.FilteredBlock;
+import org.bitcoinj.core.GetBlocksMessage;
+import org.bitcoinj.core.GetDataMessage;
+import org.bitcoinj.core.GetHeadersMessage;
+import org.bitcoinj.core.HeadersMessage;
+import org.bitcoinj.core.InventoryItem;
+import org.bitcoinj.core.InventoryMessage;
+import org.bitcoinj.core.MemoryPoolMessage;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.NotFoundMessage;
+import org.bitcoinj.core.PeerSocketHandler;
+import org.bitcoinj.core.Ping;
+import org.bitcoinj.core.Pong;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.VersionAck;
+import org.bitcoinj.core.VersionMessage;
+import org.bitcoinj.net.NioServer;
+import org.bitcoinj.params.RegTestParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A regtest node for bitcoinj peers in place of bitcoind -regtest, listening on every address of this machine as
+ * bitcoind does, so peers connecting to InetAddress.getLocalHost() find it.
+ *
+ * It serves the blocks it is given and the ones it mines: headers, blocks and filtered blocks with their matching
+ * transactions. Transactions sent by a peer or relayed go to its memory pool, are announced to the other peers
+ * whose bloom filter matches them and are put in the next block mined. Nothing is validated.
+ */
+public class RegTestPeer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RegTestPeer.class);
+
+    /* as many as bitcoind answers to a getblocks */
+    private static final int MAX_BLOCKS_INV = 500;
+
+    private final NetworkParameters params = RegTestParams.get();
+    private final Address miner;
+    private final NioServer server;
+    private final int port;
+
+    /* the chain from genesis, by height */
+    private final List<Block> blocks = new ArrayList<>();
+    private final Map<Sha256Hash, Integer> heights = new HashMap<>();
+    private final Map<Sha256Hash, Transaction> transactions = new HashMap<>();
+    private final Map<Sha256Hash, Transaction> memoryPool = new LinkedHashMap<>();
+    private final Set<Connection> connections = new CopyOnWriteArraySet<>();
+
+    /**
+     * @param chain the blocks after genesis, e.g. from RegTestChainGenerator
+     * @param miner paid by the blocks mined
+     * @param port 0 for any free one
+     * @throws IOException
+     */
+    public RegTestPeer(List<Block> chain, Address miner, int port) throws IOException {
+        checkNotNull(chain);
+        checkNotNull(miner);
+
+        this.miner = miner;
+        add(params.getGenesisBlock());
+        for (Block block : chain) {
+            add(block);
+        }
+
+        if (port == 0) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+        }
+        this.port = port;
+        this.server = new NioServer((inetAddress, remotePort) ->
+                new Connection(new InetSocketAddress(inetAddress, remotePort)),
+                new InetSocketAddress(port));
+    }
+
+    /**
+     * Accept peers
+     */
+    public void start() {
+        server.startAsync().awaitRunning();
+        log.info("Regtest peer serving {} blocks on port {}", getBestHeight(), port);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public synchronized int getBestHeight() {
+        return blocks.size() - 1;
+    }
+
+    /**
+     * @return peers connected now
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * A transaction from the network: into the memory pool and announced to the peers
+     *
+     * @param tx
+     */
+    public void relay(Transaction tx) {
+        relay(tx, null);
+    }
+
+    /**
+     * A block on top of the chain with the transactions of the memory pool, announced to the peers
+     *
+     * @return the block
+     */
+    public Block mine() {
+
+        Block block;
+        synchronized (this) {
+            Block prev = getHead();
+            int height = blocks.size();
+            /* never less than the spacing of the generated blocks, so the difficulty does not change */
+            long time = Math.max(prev.getTimeSeconds() + RegTestChainGenerator.spacing(height),
+                    System.currentTimeMillis() / 1000);
+            block = RegTestChainGenerator.nextBlock(prev, height, time, miner, new ArrayList<>(memoryPool.values()));
+            memoryPool.clear();
+            add(block);
+        }
+
+        InventoryMessage inv = new InventoryMessage(params);
+        inv.addBlock(block);
+        for (Connection connection : connections) {
+            connection.sendMessage(inv);
+        }
+        log.info("Mined block {} with {} transactions", getBestHeight(), block.getTransactions().size() - 1);
+
+        return block;
+    }
+
+    /**
+     * Disconnect the peers and stop accepting them
+     */
+    @Override
+    public void close() {
+        server.stopAsync().awaitTerminated();
+    }
+
+    private void add(Block block) {
+        heights.put(block.getHash(), blocks.size());
+        blocks.add(block);
+        if (block.getTransactions() != null) {
+            for (Transaction tx : block.getTransactions()) {
+                transactions.put(tx.getHash(), tx);
+            }
+        }
+    }
+
+    private void relay(Transaction tx, Connection from) {
+        synchronized (this) {
+            if (transactions.containsKey(tx.getHash())) {
+                return;
+            }
+            transactions.put(tx.getHash(), tx);
+            memoryPool.put(tx.getHash(), tx);
+        }
+        for (Connection connection : connections) {
+            if (connection != from && connection.matches(tx)) {
+                connection.sendMessage(InventoryMessage.with(tx));
+            }
+        }
+    }
+
+    /**
+     * The height after which a peer wants blocks: the first block of its locator in the chain, genesis if none is
+     */
+    private synchronized int forkHeight(GetBlocksMessage getBlocks) {
+        for (Sha256Hash hash : getBlocks.getLocator()) {
+            Integer height = heights.get(hash);
+            if (height != null) {
+                return height;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The blocks a peer asked for after its locator, up to its stop hash or max
+     */
+    private synchronized List<Block> blocksAfter(GetBlocksMessage getBlocks, int max) {
+        List<Block> after = new ArrayList<>();
+        for (int height = forkHeight(getBlocks) + 1; height < blocks.size() && after.size() < max; height++) {
+            Block block = blocks.get(height);
+            after.add(block);
+            if (block.getHash().equals(getBlocks.getStopHash())) {
+                break;
+            }
+        }
+        return after;
+    }
+
+    private synchronized Block getHead() {
+        return blocks.get(blocks.size() - 1);
+    }
+
+    private synchronized Block getBlock(Sha256Hash hash) {
+        Integer height = heights.get(hash);
+        return height == null ? null : blocks.get(height);
+    }
+
+    private synchronized Transaction getTransaction(Sha256Hash hash) {
+        return transactions.get(hash);
+    }
+
+    /**
+     * One peer, messages handled on the thread of the server
+     */
+    private class Connection extends PeerSocketHandler {
+
+        private volatile BloomFilter filter;
+        /* the last block of a full inventory, served with an inventory of the chain head as bitcoind does, so the
+           peer asks for the blocks after it */
+        private volatile Sha256Hash continueHash;
+
+        Connection(InetSocketAddress remoteIp) {
+            super(params, remoteIp);
+        }
+
+        @Override
+        public void connectionOpened() {
+            connections.add(this);
+        }
+
+        @Override
+        public void connectionClosed() {
+            connections.remove(this);
+        }
+
+        boolean matches(Transaction tx) {
+            BloomFilter bloomFilter = filter;
+            return bloomFilter == null || bloomFilter.applyAndUpdate(tx);
+        }
+
+        @Override
+        protected void processMessage(Message m) {
+
+            if (m instanceof VersionMessage) {
+                VersionMessage version = new VersionMessage(params, getBestHeight());
+                version.localServices = VersionMessage.NODE_NETWORK;
+                sendMessage(version);
+                sendMessage(new VersionAck());
+            } else if (m instanceof Ping) {
+                if (((Ping) m).hasNonce()) {
+                    sendMessage(new Pong(((Ping) m).getNonce()));
+                }
+            } else if (m instanceof GetHeadersMessage) {
+                List<Block> headers = new ArrayList<>();
+                for (Block block : blocksAfter((GetHeadersMessage) m, HeadersMessage.MAX_HEADERS)) {
+                    headers.add(block.cloneAsHeader());
+                }
+                sendMessage(new HeadersMessage(params, headers));
+            } else if (m instanceof GetBlocksMessage) {
+                List<Block> after = blocksAfter((GetBlocksMessage) m, MAX_BLOCKS_INV);
+                InventoryMessage inv = new InventoryMessage(params);
+                for (Block block : after) {
+                    inv.addBlock(block);
+                }
+                if (after.size() == MAX_BLOCKS_INV) {
+                    continueHash = after.get(after.size() - 1).getHash();
+                }
+                sendMessage(inv);
+            } else if (m instanceof GetDataMessage) {
+                getData((GetDataMessage) m);
+            } else if (m instanceof BloomFilter) {
+                filter = (BloomFilter) m;
+            } else if (m instanceof MemoryPoolMessage) {
+                InventoryMessage inv = new InventoryMessage(params);
+                synchronized (RegTestPeer.this) {
+                    for (Transaction tx : memoryPool.values()) {
+                        if (matches(tx)) {
+                            inv.addTransaction(tx);
+                        }
+                    }
+                }
+                sendMessage(inv);
+            } else if (m instanceof Transaction) {
+                relay((Transaction) m, this);
+            } else if (m instanceof InventoryMessage) {
+                /* transactions a peer announces are asked for, and relayed once received */
+                GetDataMessage getData = new GetDataMessage(params);
+                for (InventoryItem item : ((InventoryMessage) m).getItems()) {
+                    if (item.type == InventoryItem.Type.Transaction && getTransaction(item.hash) == null) {
+                        getData.addItem(item);
+                    }
+                }
+                if (!getData.getItems().isEmpty()) {
+                    sendMessage(getData);
+                }
+            }
+        }
+
+        private void getData(GetDataMessage getData) {
+
+            List<InventoryItem> notFound = new ArrayList<>();
+            for (InventoryItem item : getData.getItems()) {
+                if (item.type == InventoryItem.Type.Transaction) {
+                    Transaction tx = getTransaction(item.hash);
+                    if (tx == null) {
+                        notFound.add(item);
+                    } else {
+                        sendMessage(tx);
+                    }
+                    continue;
+                }
+
+                Block block = getBlock(item.hash);
+                if (block == null) {
+                    notFound.add(item);
+                } else if (item.type == InventoryItem.Type.FilteredBlock && filter != null) {
+                    /* the merkle block, then the transactions it matched in the order of the block */
+                    FilteredBlock filteredBlock = filter.applyAndUpdate(block);
+                    sendMessage(filteredBlock);
+                    Map<Sha256Hash, Transaction> matched = filteredBlock.getAssociatedTransactions();
+                    for (Transaction tx : block.getTransactions()) {
+                        if (matched.containsKey(tx.getHash())) {
+                            sendMessage(tx);
+                        }
+                    }
+                } else {
+                    sendMessage(block);
+                }
+                if (item.hash.equals(continueHash)) {
+                    continueHash = null;
+                    InventoryMessage inv = new InventoryMessage(params);
+                    inv.addBlock(getHead());
+                    sendMessage(inv);
+                }
+            }
+            if (!notFound.isEmpty()) {
+                sendMessage(new NotFoundMessage(params, notFound));
+            }
+        }
+    }
+}
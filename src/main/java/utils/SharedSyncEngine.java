@@ -0,0 +1,373 @@
+package utils;
+
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.PeerGroup;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.core.listeners.DownloadProgressTracker;
+import org.bitcoinj.core.listeners.NewBestBlockListener;
+import org.bitcoinj.core.listeners.ReorganizeListener;
+import org.bitcoinj.core.listeners.TransactionReceivedInBlockListener;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * One BlockChain, block store and PeerGroup for many wallets, instead of one of each per wallet.
+ *
+ * Headers are downloaded and checked once for all the wallets. The PeerGroup merges the bloom filters of the wallets
+ * into the one sent to peers and recalculates it as wallets come and go, sized and rate-limited by a
+ * BloomFilterManager, and each wallet gets the blocks and the transactions relevant to it from the shared chain.
+ *
+ * A wallet added behind the chain head waits until the download is done, then the chain goes back to the oldest
+ * waiting wallet and downloads again from there. Wallets that already saw those blocks do not get them twice. A
+ * block announced while the chain goes back reaches the waiting wallets as a reorganize, without the transactions
+ * of the blocks before it, so wallets are best added behind while the chain is at the head of its peers.
+ */
+public class SharedSyncEngine implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedSyncEngine.class);
+
+    /* the week CheckpointManager goes back from the key creation time, for clock drift */
+    private static final long KEY_TIME_DRIFT_SECS = TimeUnit.DAYS.toSeconds(7);
+
+    private final SharedChain chain;
+    private final BloomFilterManager bloomFilters;
+    private final PeerGroup peerGroup;
+    private final Map<Wallet, WalletListener> wallets = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final DownloadProgressTracker tracker = new DownloadProgressTracker();
+    private volatile boolean waiting;
+
+    /**
+     * @param params
+     * @param store shared by every wallet, e.g. from BlockStoreBuilder.createSPVStore and checkpoint()
+     * @throws BlockStoreException
+     */
+    public SharedSyncEngine(NetworkParameters params, BlockStore store) throws BlockStoreException {
+        this(params, store, new BloomFilterManager());
+    }
+
+    /**
+     * @param params
+     * @param store shared by every wallet, e.g. from BlockStoreBuilder.createSPVStore and checkpoint()
+     * @param bloomFilters sizes and rate-limits the merged filter of the wallets, closed with the engine
+     * @throws BlockStoreException
+     */
+    public SharedSyncEngine(NetworkParameters params, BlockStore store, BloomFilterManager bloomFilters)
+            throws BlockStoreException {
+        checkNotNull(params);
+        checkNotNull(store);
+        checkNotNull(bloomFilters);
+
+        this.chain = new SharedChain(params, store);
+        this.bloomFilters = bloomFilters;
+        this.peerGroup = bloomFilters.newPeerGroup(params, chain);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("sync-engine-%d").setDaemon(true).build());
+
+        /* while wallets wait to catch up, they are checked after every block, off the chain lock */
+        chain.addNewBestBlockListener(Threading.SAME_THREAD, block -> {
+            if (waiting) {
+                executor.execute(this::catchUp);
+            }
+        });
+    }
+
+    /**
+     * Start the peer group and the download of the chain
+     */
+    public void start() {
+        peerGroup.start();
+        peerGroup.startBlockChainDownload(tracker);
+    }
+
+    /**
+     * Wait until the chain is at the head of its peers
+     *
+     * @throws InterruptedException
+     */
+    public void awaitDownload() throws InterruptedException {
+        tracker.await();
+    }
+
+    /**
+     * Sync a wallet with the shared chain, while the chain is downloading or not
+     *
+     * @param wallet synced with the blocks of the store or ahead of them, or never synced with keys newer than the
+     *               oldest header of the store
+     * @throws BlockStoreException
+     * @throws IllegalArgumentException if the wallet needs blocks older than the store has
+     */
+    public void addWallet(Wallet wallet) throws BlockStoreException {
+        checkNotNull(wallet);
+        checkArgument(!wallets.containsKey(wallet), "Wallet already added");
+
+        StoredBlock start = startBlock(wallet);
+        checkArgument(start != null, "Wallet at height %s is not on the blocks of the store, sync it on its own first",
+                wallet.getLastBlockSeenHeight());
+
+        WalletListener listener = new WalletListener(wallet, start);
+        chain.attach(listener);
+        wallets.put(wallet, listener);
+        peerGroup.addWallet(wallet);
+
+        log.info("Wallet added at height {}, chain at {}, {} wallets", start.getHeight(),
+                chain.getBestChainHeight(), wallets.size());
+        if (!listener.active) {
+            waiting = true;
+            executor.execute(this::catchUp);
+        }
+    }
+
+    /**
+     * Stop syncing a wallet, the download goes on for the others
+     *
+     * @param wallet
+     */
+    public void removeWallet(Wallet wallet) {
+        WalletListener listener = wallets.remove(wallet);
+        if (listener == null) {
+            return;
+        }
+        chain.removeNewBestBlockListener(listener);
+        chain.removeReorganizeListener(listener);
+        chain.removeTransactionReceivedListener(listener);
+        peerGroup.removeWallet(wallet);
+
+        log.info("Wallet removed, {} wallets", wallets.size());
+    }
+
+    public int getWalletCount() {
+        return wallets.size();
+    }
+
+    public BlockChain getChain() {
+        return chain;
+    }
+
+    public BloomFilterManager getBloomFilters() {
+        return bloomFilters;
+    }
+
+    /**
+     * @return to add peers or discovery before start()
+     */
+    public PeerGroup getPeerGroup() {
+        return peerGroup;
+    }
+
+    /**
+     * Remove every wallet and stop the peer group and its filter, the block store is left open
+     */
+    @Override
+    public void close() {
+        for (Wallet wallet : wallets.keySet()) {
+            removeWallet(wallet);
+        }
+        if (peerGroup.isRunning()) {
+            peerGroup.stop();
+        }
+        bloomFilters.close();
+        executor.shutdown();
+    }
+
+    /**
+     * The block a wallet syncs from: the last one it saw, the chain head for a wallet ahead of it, or for a wallet
+     * never synced the newest block a week before its earliest key
+     *
+     * @param wallet
+     * @return null if it is not in the store
+     * @throws BlockStoreException
+     */
+    private StoredBlock startBlock(Wallet wallet) throws BlockStoreException {
+
+        BlockStore store = chain.getBlockStore();
+        StoredBlock block = store.getChainHead();
+        Sha256Hash hash = wallet.getLastBlockSeenHash();
+        if (hash != null) {
+            int height = wallet.getLastBlockSeenHeight();
+            if (height > block.getHeight()) {
+                /* synced elsewhere, it only gets the blocks after its own once the chain is there */
+                return block;
+            }
+            while (block != null && block.getHeight() > height) {
+                block = block.getPrev(store);
+            }
+            return block != null && block.getHeader().getHash().equals(hash) ? block : null;
+        }
+
+        long time = wallet.getEarliestKeyCreationTime() - KEY_TIME_DRIFT_SECS;
+        if (time <= 0) {
+            /* keys of unknown age, any block may pay them */
+            return block.getHeight() == 0 ? block : null;
+        }
+        while (block != null && block.getHeight() > 0 && block.getHeader().getTimeSeconds() >= time) {
+            block = block.getPrev(store);
+        }
+        return block;
+    }
+
+    /**
+     * Take the chain back to the oldest wallet waiting, once it is at the head of its peers
+     */
+    private synchronized void catchUp() {
+
+        int height = Integer.MAX_VALUE;
+        for (WalletListener listener : wallets.values()) {
+            if (!listener.active) {
+                height = Math.min(height, listener.startHeight);
+            }
+        }
+        if (height == Integer.MAX_VALUE) {
+            waiting = false;
+            return;
+        }
+        int head = chain.getBestChainHeight();
+        if (head < peerGroup.getMostCommonChainHeight()) {
+            return;
+        }
+
+        try {
+            chain.rollbackAndActivate(height);
+        } catch (BlockStoreException e) {
+            log.error("Chain not rolled back to height {}, waiting wallets stay behind", height, e);
+            return;
+        }
+        if (height < head) {
+            log.info("Chain rolled back from height {} to {} for the wallets added", head, height);
+            if (peerGroup.isRunning()) {
+                peerGroup.startBlockChainDownload(tracker);
+            }
+        }
+    }
+
+    /**
+     * A BlockChain that goes back for new wallets and lets them in while it holds its lock, so no block reaches a
+     * wallet between the two
+     */
+    private class SharedChain extends BlockChain {
+
+        SharedChain(NetworkParameters params, BlockStore store) throws BlockStoreException {
+            super(params, store);
+        }
+
+        /**
+         * Register the listener of a wallet, letting it in at once if it starts from the chain head
+         */
+        void attach(WalletListener listener) {
+            lock.lock();
+            try {
+                addNewBestBlockListener(Threading.SAME_THREAD, listener);
+                addReorganizeListener(Threading.SAME_THREAD, listener);
+                addTransactionReceivedListener(Threading.SAME_THREAD, listener);
+                listener.active = listener.startHash.equals(getChainHead().getHeader().getHash());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void rollbackAndActivate(int height) throws BlockStoreException {
+            lock.lock();
+            try {
+                if (height < getBestChainHeight()) {
+                    rollbackBlockStore(height);
+                }
+                for (WalletListener listener : wallets.values()) {
+                    if (!listener.active && listener.startHeight >= height) {
+                        listener.active = true;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * What BlockChain.addWallet registers, but only blocks after the last one the wallet saw reach it, so a
+     * rollback for another wallet does not replay them. Each call to the wallet holds its lock and is timed.
+     */
+    private static class WalletListener implements NewBestBlockListener, ReorganizeListener,
+            TransactionReceivedInBlockListener {
+
+        private final Timer lockHold = Metrics.timer(Metrics.WALLET_LOCK_HOLD);
+        private final Wallet wallet;
+        private final int startHeight;
+        private final Sha256Hash startHash;
+        private volatile boolean active;
+
+        WalletListener(Wallet wallet, StoredBlock start) {
+            this.wallet = wallet;
+            this.startHeight = start.getHeight();
+            this.startHash = start.getHeader().getHash();
+        }
+
+        private boolean isNew(StoredBlock block, AbstractBlockChain.NewBlockType blockType) {
+            return active && (blockType == AbstractBlockChain.NewBlockType.SIDE_CHAIN
+                    || block.getHeight() > wallet.getLastBlockSeenHeight());
+        }
+
+        @Override
+        public void notifyNewBestBlock(StoredBlock block) throws VerificationException {
+            if (isNew(block, AbstractBlockChain.NewBlockType.BEST_CHAIN)) {
+                try (Timer.Context ignored = lockHold.time()) {
+                    wallet.notifyNewBestBlock(block);
+                }
+            }
+        }
+
+        @Override
+        public void reorganize(StoredBlock splitPoint, List<StoredBlock> oldBlocks, List<StoredBlock> newBlocks)
+                throws VerificationException {
+            if (active) {
+                try (Timer.Context ignored = lockHold.time()) {
+                    wallet.reorganize(splitPoint, oldBlocks, newBlocks);
+                }
+            }
+        }
+
+        @Override
+        public void receiveFromBlock(Transaction tx, StoredBlock block, AbstractBlockChain.NewBlockType blockType,
+                                     int relativityOffset) throws VerificationException {
+            if (isNew(block, blockType)) {
+                try (Timer.Context ignored = lockHold.time()) {
+                    wallet.receiveFromBlock(tx, block, blockType, relativityOffset);
+                }
+            }
+        }
+
+        @Override
+        public boolean notifyTransactionIsInBlock(Sha256Hash txHash, StoredBlock block,
+                                                  AbstractBlockChain.NewBlockType blockType,
+                                                  int relativityOffset) throws VerificationException {
+            if (isNew(block, blockType)) {
+                try (Timer.Context ignored = lockHold.time()) {
+                    return wallet.notifyTransactionIsInBlock(txHash, block, blockType, relativityOffset);
+                }
+            }
+            /* seen before: not a false positive of the filter */
+            return wallet.getTransaction(txHash) != null;
+        }
+    }
+}
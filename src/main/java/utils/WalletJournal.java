@@ -0,0 +1,764 @@
+package utils;
+
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.ByteString;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.listeners.TransactionConfidenceEventListener;
+import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.KeyChain;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction;
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener;
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Incremental persistence of a wallet: a snapshot saved by bitcoinj plus an append-only journal of its changes.
+ *
+ * Wallet listeners run holding the wallet lock and record the transactions whose pool or confidence changed, the
+ * last block seen and the issued key counters. Each change is one journal entry, written on a background thread,
+ * so a save costs the size of the change instead of a protobuf of the whole wallet. Depth in blocks is not
+ * journaled, it follows from the height a transaction appeared at and the last block seen.
+ *
+ * When the journal grows larger than the snapshot it is compacted: the wallet is saved again and the journal
+ * starts empty. The snapshot carries a generation tag and the journal header the generation, length and
+ * modification time of the snapshot it applies to, so a journal left by a crash between both steps, or by a save
+ * of the wallet made elsewhere, is ignored instead of applied to a newer snapshot. Close compacts too, so tools
+ * loading the wallet file without its journal see every change. Compaction also writes the WalletSummary read to
+ * start fast.
+ *
+ * Journal layout: magic "BWJ" | version | generation (long) | snapshot length (long) | snapshot modified (long)
+ * followed by entries of
+ *  length (int) | crc32 of the payload (int) | payload
+ * A torn entry at the end, left by a crash, is cut off on open.
+ */
+public class WalletJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+    public static final String JOURNAL_SUFFIX = ".journal";
+    static final String GENERATION_TAG = "journal-generation";
+
+    private static final byte[] MAGIC = {'B', 'W', 'J'};
+    private static final byte VERSION = 1;
+    static final int SNAPSHOT_STAMP_LENGTH = 16;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 8 + SNAPSHOT_STAMP_LENGTH;
+    private static final int ENTRY_HEADER_LENGTH = 8;
+
+    /* entry types */
+    private static final byte TX = 1;
+    private static final byte BLOCK = 2;
+    private static final byte KEYS = 3;
+
+    /* compaction threshold when the snapshot is smaller */
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    private final Wallet wallet;
+    private final File walletFile;
+    private final Path journalPath;
+    private final FsyncPolicy fsyncPolicy;
+    private final long delayMillis;
+
+    /* hashes of transactions whose confidence changed before they were in a pool, filled holding the wallet lock */
+    private final Set<Sha256Hash> dirty = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    /* state of every transaction as the journal last recorded it, so depth only changes are not written */
+    private final Map<Sha256Hash, List<Object>> recorded = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean compactRequested = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+
+    private final Object chainStateLock = new Object();
+    private Sha256Hash recordedBlockHash;
+    private int recordedExternalKeys;
+    private int recordedInternalKeys;
+
+    /* guarded by this */
+    private FileChannel channel;
+    private long generation;
+    private long compactBytes;
+    private boolean closed;
+
+    /* listeners run holding the wallet lock, they never wait for the journal file */
+
+    private final TransactionConfidenceEventListener confidenceListener = (wallet, tx) -> {
+        /* the last change event can come before the confidence of a transaction, so it is recorded now if it is in
+           a pool, and by the next change event, sync or close otherwise */
+        if (recordTransaction(tx)) {
+            scheduleFlush();
+        } else {
+            dirty.add(tx.getHash());
+        }
+    };
+
+    private final WalletChangeEventListener changeListener = wallet -> {
+        recordDirty();
+        recordChainState();
+        scheduleFlush();
+    };
+
+    private final WalletReorganizeEventListener reorganizeListener = wallet -> {
+        /* blocks can be taken back, the next flush saves a snapshot instead of journaling every transaction */
+        compactRequested.set(true);
+    };
+
+    private WalletJournal(Wallet wallet, File walletFile, FsyncPolicy fsyncPolicy, long delayMillis) {
+        this.wallet = wallet;
+        this.walletFile = walletFile;
+        this.journalPath = journalFile(walletFile).toPath();
+        this.fsyncPolicy = fsyncPolicy;
+        this.delayMillis = delayMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("wallet-journal-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Load the wallet snapshot, apply its journal and start recording the changes of the wallet
+     *
+     * @param walletFile wallet saved by bitcoinj, the journal is next to it
+     * @param fsyncPolicy how far each journal write is forced to disk
+     * @param delay time changes are gathered before they are written
+     * @param timeUnit
+     * @return
+     * @throws UnreadableWalletException if the snapshot can not be read
+     * @throws IOException
+     */
+    public static WalletJournal open(File walletFile, FsyncPolicy fsyncPolicy, long delay, TimeUnit timeUnit)
+            throws UnreadableWalletException, IOException {
+        checkNotNull(walletFile);
+        checkNotNull(fsyncPolicy);
+        checkArgument(delay >= 0, "delay can not be negative");
+
+        Wallet wallet = Wallet.loadFromFile(walletFile);
+        WalletJournal journal = new WalletJournal(wallet, walletFile, fsyncPolicy, timeUnit.toMillis(delay));
+        journal.start();
+
+        return journal;
+    }
+
+    public static File journalFile(File walletFile) {
+        return new File(walletFile.getPath() + JOURNAL_SUFFIX);
+    }
+
+    public Wallet getWallet() {
+        return wallet;
+    }
+
+    /**
+     * Write the changes recorded so far and force them to disk as the fsync policy says
+     *
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        checkState(!closed, "journal closed");
+
+        recordDirty();
+        recordChainState();
+        writePending();
+    }
+
+    /**
+     * Save the whole wallet as the new snapshot and start an empty journal
+     *
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        checkState(!closed, "journal closed");
+
+        long next = generation + 1;
+        wallet.setTag(GENERATION_TAG, ByteString.copyFrom(ByteBuffer.allocate(8).putLong(0, next).array()));
+        try (Timer.Context ignored = Metrics.timer(Metrics.WALLET_SAVE).time()) {
+            wallet.saveToFile(walletFile);
+        }
+        if (fsyncPolicy.forceDirectory()) {
+            FileUtils.forceDirectory(walletFile.toPath());
+        }
+
+        /* a crash before this point leaves a journal of the previous generation, ignored by the next open */
+        if (channel != null) {
+            channel.close();
+        }
+        FileUtils.write(journalPath, header(next, walletFile.toPath()), fsyncPolicy);
+        channel = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        generation = next;
+        compactBytes = Math.max(MIN_COMPACT_BYTES, walletFile.length());
+        writeSummary();
+
+        log.info("Wallet {} compacted, generation {}", walletFile, generation);
+    }
+
+    /**
+     * Stop recording and save the whole wallet, with its summary, as the snapshot other tools load without the journal
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        wallet.removeChangeEventListener(changeListener);
+        wallet.removeTransactionConfidenceEventListener(confidenceListener);
+        wallet.removeReorganizeEventListener(reorganizeListener);
+        try {
+            compact();
+        } catch (IOException e) {
+            log.error("Wallet not saved on close, its changes are left in the journal", e);
+            try {
+                recordDirty();
+                recordChainState();
+                writePending();
+            } catch (IOException journalException) {
+                log.error("Wallet journal changes not written", journalException);
+            }
+        }
+        executor.shutdown();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Wallet journal not closed", e);
+        }
+        closed = true;
+    }
+
+    private synchronized void writeSummary() throws IOException {
+        WalletSummary.write(walletFile, WalletSummary.of(wallet), channel.size(), fsyncPolicy);
+    }
+
+    private synchronized void start() throws IOException {
+
+        ByteString tag = wallet.maybeGetTag(GENERATION_TAG);
+        generation = tag != null ? tag.asReadOnlyByteBuffer().getLong() : 0;
+        List<byte[]> entries = tag != null ? readJournal(generation) : null;
+        if (entries == null) {
+            compact();
+        } else {
+            replay(entries);
+            channel = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            compactBytes = Math.max(MIN_COMPACT_BYTES, walletFile.length());
+            log.info("Wallet {} loaded with {} journal entries", walletFile, entries.size());
+        }
+
+        /* nothing else uses the wallet yet, so its pools can be read without its lock */
+        for (WalletTransaction walletTransaction : wallet.getWalletTransactions()) {
+            recorded.put(walletTransaction.getTransaction().getHash(),
+                    state(walletTransaction.getPool(), walletTransaction.getTransaction()));
+        }
+        recordedBlockHash = wallet.getLastBlockSeenHash();
+        DeterministicKeyChain chain = wallet.getActiveKeyChain();
+        recordedExternalKeys = chain.getIssuedExternalKeys();
+        recordedInternalKeys = chain.getIssuedInternalKeys();
+
+        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, confidenceListener);
+        wallet.addChangeEventListener(Threading.SAME_THREAD, changeListener);
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, reorganizeListener);
+    }
+
+    /**
+     * Record the transactions whose confidence changed before they were in a pool, and their parents
+     */
+    private void recordDirty() {
+        for (Sha256Hash hash : dirty) {
+            if (!dirty.remove(hash)) {
+                continue;
+            }
+            Transaction tx = wallet.getTransaction(hash);
+            if (tx != null) {
+                recordTransaction(tx);
+                /* spending moves the parents to another pool */
+                for (TransactionInput input : tx.getInputs()) {
+                    Transaction parent = wallet.getTransaction(input.getOutpoint().getHash());
+                    if (parent != null) {
+                        recordTransaction(parent);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the transaction is in no pool of the wallet
+     */
+    private boolean recordTransaction(Transaction tx) {
+
+        WalletTransaction.Pool pool = pool(tx.getHash());
+        if (pool == null) {
+            return false;
+        }
+        List<Object> state = state(pool, tx);
+        if (!state.equals(recorded.put(tx.getHash(), state))) {
+            pending.add(transactionEntry(pool, tx));
+        }
+        return true;
+    }
+
+    /* poolContainsTxHash takes the wallet lock, sync and close call it without holding it */
+    private WalletTransaction.Pool pool(Sha256Hash hash) {
+        for (WalletTransaction.Pool pool : WalletTransaction.Pool.values()) {
+            if (wallet.poolContainsTxHash(pool, hash)) {
+                return pool;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Everything journaled for a transaction but its bytes, which never change
+     */
+    private static List<Object> state(WalletTransaction.Pool pool, Transaction tx) {
+        TransactionConfidence confidence = tx.getConfidence();
+        Transaction overriding = overridingTransaction(confidence);
+        return Arrays.asList(pool, confidence.getConfidenceType(), appearedAtChainHeight(confidence),
+                confidence.getSource(), tx.getPurpose(), overriding != null ? overriding.getHash() : null,
+                tx.getAppearsInHashes() != null ? tx.getAppearsInHashes().size() : 0);
+    }
+
+    /**
+     * Record the last block seen and the issued key counters if they changed
+     */
+    private void recordChainState() {
+
+        /* the block fields are read one by one, a block arriving in between is recorded by the next call */
+        Sha256Hash hash = wallet.getLastBlockSeenHash();
+        int height = wallet.getLastBlockSeenHeight();
+        long timeSecs = wallet.getLastBlockSeenTimeSecs();
+        DeterministicKeyChain chain = wallet.getActiveKeyChain();
+        int external = chain.getIssuedExternalKeys();
+        int internal = chain.getIssuedInternalKeys();
+
+        boolean blockRead = hash != null && hash.equals(wallet.getLastBlockSeenHash());
+
+        synchronized (chainStateLock) {
+            if (blockRead && !hash.equals(recordedBlockHash)) {
+                recordedBlockHash = hash;
+                pending.add(blockEntry(hash, height, timeSecs));
+            }
+            if (external > recordedExternalKeys || internal > recordedInternalKeys) {
+                recordedExternalKeys = Math.max(external, recordedExternalKeys);
+                recordedInternalKeys = Math.max(internal, recordedInternalKeys);
+                pending.add(keysEntry(recordedExternalKeys, recordedInternalKeys));
+            }
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void flush() {
+        flushScheduled.set(false);
+        if (closed) {
+            return;
+        }
+        try {
+            writePending();
+        } catch (IOException e) {
+            /* entries stay queued and are written by the next flush */
+            log.error("Wallet journal not written", e);
+        }
+    }
+
+    private synchronized void writePending() throws IOException {
+
+        long start = System.nanoTime();
+        long written = 0;
+        byte[] entry;
+        while ((entry = pending.peek()) != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(entry);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            pending.poll();
+            written += entry.length;
+        }
+        if (written > 0 && fsyncPolicy.forceFile()) {
+            channel.force(false);
+        }
+        if (written > 0) {
+            Metrics.timer(Metrics.JOURNAL_WRITE).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        if (compactRequested.getAndSet(false) || channel.size() > compactBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Read the entries of the journal of generation
+     *
+     * @param generation
+     * @return the entries, or null if there is no journal of that generation
+     * @throws IOException
+     */
+    private List<byte[]> readJournal(long generation) throws IOException {
+
+        if (!Files.exists(journalPath)) {
+            return null;
+        }
+        List<byte[]> entries = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer journal = ByteBuffer.allocate((int) in.size());
+            while (journal.hasRemaining() && in.read(journal) >= 0) {
+                /* read it all */
+            }
+            journal.flip();
+
+            if (journal.remaining() < HEADER_LENGTH) {
+                return null;
+            }
+            byte[] magic = new byte[MAGIC.length];
+            journal.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || journal.get() != VERSION) {
+                throw new IOException("Not a wallet journal: " + journalPath);
+            }
+            if (journal.getLong() != generation || !matchesSnapshot(journal, walletFile.toPath())) {
+                log.info("Journal {} is older than its wallet, ignored", journalPath);
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            while (journal.remaining() >= ENTRY_HEADER_LENGTH) {
+                int start = journal.position();
+                int length = journal.getInt();
+                int checksum = journal.getInt();
+                if (length < 1 || length > journal.remaining()) {
+                    journal.position(start);
+                    break;
+                }
+                byte[] payload = new byte[length];
+                journal.get(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    journal.position(start);
+                    break;
+                }
+                entries.add(payload);
+            }
+
+            if (journal.hasRemaining()) {
+                log.warn("Journal {} has a torn entry at {}, cut off", journalPath, journal.position());
+                in.truncate(journal.position());
+                in.force(false);
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Apply journal entries to the wallet loaded from the snapshot
+     *
+     * Transactions can not be moved between pools of a wallet, so when some changed every transaction is added
+     * again, with its inputs connected to the outputs they spend first, as bitcoinj does loading a wallet.
+     */
+    private void replay(List<byte[]> entries) throws IOException {
+
+        NetworkParameters params = wallet.getParams();
+        Map<Sha256Hash, WalletTransaction> transactions = new LinkedHashMap<>();
+        for (WalletTransaction walletTransaction : wallet.getWalletTransactions()) {
+            transactions.put(walletTransaction.getTransaction().getHash(), walletTransaction);
+        }
+        Map<Sha256Hash, TransactionEntry> changed = new LinkedHashMap<>();
+        Sha256Hash blockHash = null;
+        int blockHeight = 0;
+        long blockTimeSecs = 0;
+        int external = 0;
+        int internal = 0;
+
+        for (byte[] payload : entries) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            try {
+                switch (in.readByte()) {
+                    case TX:
+                        TransactionEntry entry = readTransactionEntry(params, in);
+                        transactions.put(entry.tx.getHash(), new WalletTransaction(entry.pool, entry.tx));
+                        changed.put(entry.tx.getHash(), entry);
+                        break;
+                    case BLOCK:
+                        blockHash = readHash(in);
+                        blockHeight = in.readInt();
+                        blockTimeSecs = in.readLong();
+                        break;
+                    case KEYS:
+                        external = Math.max(external, in.readInt());
+                        internal = Math.max(internal, in.readInt());
+                        break;
+                    default:
+                        throw new IOException("Unknown journal entry " + payload[0]);
+                }
+            } catch (EOFException e) {
+                throw new IOException("Truncated journal entry", e);
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            for (WalletTransaction walletTransaction : transactions.values()) {
+                if (walletTransaction.getPool() == WalletTransaction.Pool.DEAD) {
+                    continue;
+                }
+                for (TransactionInput input : walletTransaction.getTransaction().getInputs()) {
+                    WalletTransaction parent = transactions.get(input.getOutpoint().getHash());
+                    long index = input.getOutpoint().getIndex();
+                    if (parent != null && index < parent.getTransaction().getOutputs().size()) {
+                        TransactionOutput output = parent.getTransaction().getOutput(index);
+                        if (output.getSpentBy() != input) {
+                            if (!output.isAvailableForSpending()) {
+                                output.markAsUnspent();
+                            }
+                            input.connect(output);
+                        }
+                    }
+                }
+            }
+            for (TransactionEntry entry : changed.values()) {
+                entry.restoreConfidence(transactions);
+            }
+            wallet.clearTransactions(0);
+            for (WalletTransaction walletTransaction : transactions.values()) {
+                wallet.addWalletTransaction(walletTransaction);
+            }
+        }
+
+        if (blockHash != null) {
+            wallet.setLastBlockSeenHash(blockHash);
+            wallet.setLastBlockSeenHeight(blockHeight);
+            wallet.setLastBlockSeenTimeSecs(blockTimeSecs);
+        }
+        if (blockHash != null || !changed.isEmpty()) {
+            int lastHeight = wallet.getLastBlockSeenHeight();
+            for (WalletTransaction walletTransaction : transactions.values()) {
+                TransactionConfidence confidence = walletTransaction.getTransaction().getConfidence();
+                if (confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING) {
+                    confidence.setDepthInBlocks(lastHeight - confidence.getAppearedAtChainHeight() + 1);
+                }
+            }
+        }
+
+        /* fresh addresses keep the following chains of a married wallet in step */
+        DeterministicKeyChain chain = wallet.getActiveKeyChain();
+        while (chain.getIssuedExternalKeys() < external) {
+            wallet.freshAddress(KeyChain.KeyPurpose.RECEIVE_FUNDS);
+        }
+        while (chain.getIssuedInternalKeys() < internal) {
+            wallet.freshAddress(KeyChain.KeyPurpose.CHANGE);
+        }
+    }
+
+    /* only a building transaction has a height */
+    private static int appearedAtChainHeight(TransactionConfidence confidence) {
+        return confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING
+                ? confidence.getAppearedAtChainHeight() : -1;
+    }
+
+    /* only a dead transaction has one */
+    private static Transaction overridingTransaction(TransactionConfidence confidence) {
+        return confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD
+                ? confidence.getOverridingTransaction() : null;
+    }
+
+    private static byte[] header(long generation, Path walletPath) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).put(MAGIC).put(VERSION).putLong(generation);
+        putSnapshotStamp(header, walletPath);
+        return header.array();
+    }
+
+    /**
+     * Put the length and modification time of the wallet file, which any save of the wallet changes
+     *
+     * @param buffer
+     * @param walletPath
+     * @throws IOException
+     */
+    static void putSnapshotStamp(ByteBuffer buffer, Path walletPath) throws IOException {
+        buffer.putLong(Files.size(walletPath)).putLong(Files.getLastModifiedTime(walletPath).toMillis());
+    }
+
+    /**
+     * Read a stamp put by putSnapshotStamp and tell if the wallet file still has it
+     *
+     * @param buffer
+     * @param walletPath
+     * @return
+     * @throws IOException
+     */
+    static boolean matchesSnapshot(ByteBuffer buffer, Path walletPath) throws IOException {
+        long length = buffer.getLong();
+        long modified = buffer.getLong();
+        return length == Files.size(walletPath) && modified == Files.getLastModifiedTime(walletPath).toMillis();
+    }
+
+    private static byte[] transactionEntry(WalletTransaction.Pool pool, Transaction tx) {
+        TransactionConfidence confidence = tx.getConfidence();
+        Transaction overriding = overridingTransaction(confidence);
+        Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
+
+        return entry(TX, out -> {
+            out.writeUTF(pool.name());
+            byte[] bytes = tx.bitcoinSerialize();
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeLong(tx.getUpdateTime().getTime());
+            out.writeUTF(tx.getPurpose().name());
+            out.writeUTF(confidence.getConfidenceType().name());
+            out.writeInt(appearedAtChainHeight(confidence));
+            out.writeUTF(confidence.getSource().name());
+            out.writeBoolean(overriding != null);
+            if (overriding != null) {
+                out.write(overriding.getHash().getBytes());
+            }
+            out.writeInt(appearsIn != null ? appearsIn.size() : 0);
+            if (appearsIn != null) {
+                for (Map.Entry<Sha256Hash, Integer> block : appearsIn.entrySet()) {
+                    out.write(block.getKey().getBytes());
+                    out.writeInt(block.getValue());
+                }
+            }
+        });
+    }
+
+    private static TransactionEntry readTransactionEntry(NetworkParameters params, DataInputStream in)
+            throws IOException {
+
+        WalletTransaction.Pool pool = WalletTransaction.Pool.valueOf(in.readUTF());
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        Transaction tx = new Transaction(params, bytes);
+        tx.setUpdateTime(new Date(in.readLong()));
+        tx.setPurpose(Transaction.Purpose.valueOf(in.readUTF()));
+
+        TransactionEntry entry = new TransactionEntry(pool, tx);
+        entry.confidenceType = TransactionConfidence.ConfidenceType.valueOf(in.readUTF());
+        entry.appearedAtChainHeight = in.readInt();
+        entry.source = TransactionConfidence.Source.valueOf(in.readUTF());
+        entry.overridingHash = in.readBoolean() ? readHash(in) : null;
+        for (int i = in.readInt(); i > 0; i--) {
+            tx.addBlockAppearance(readHash(in), in.readInt());
+        }
+
+        return entry;
+    }
+
+    private static byte[] blockEntry(Sha256Hash hash, int height, long timeSecs) {
+        return entry(BLOCK, out -> {
+            out.write(hash.getBytes());
+            out.writeInt(height);
+            out.writeLong(timeSecs);
+        });
+    }
+
+    private static byte[] keysEntry(int external, int internal) {
+        return entry(KEYS, out -> {
+            out.writeInt(external);
+            out.writeInt(internal);
+        });
+    }
+
+    private static Sha256Hash readHash(DataInputStream in) throws IOException {
+        byte[] hash = new byte[Sha256Hash.LENGTH];
+        in.readFully(hash);
+        return Sha256Hash.wrap(hash);
+    }
+
+    /**
+     * Frame a payload with its length and checksum
+     */
+    private static byte[] entry(byte type, PayloadWriter payloadWriter) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(type);
+            payloadWriter.write(out);
+            out.flush();
+
+            byte[] entry = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(entry, ENTRY_HEADER_LENGTH, entry.length - ENTRY_HEADER_LENGTH);
+            ByteBuffer.wrap(entry).putInt(entry.length - ENTRY_HEADER_LENGTH).putInt((int) crc.getValue());
+            return entry;
+        } catch (IOException e) {
+            /* a byte array stream does not throw */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * A journaled transaction, its confidence applied once every transaction it can refer to is known
+     */
+    private static final class TransactionEntry {
+
+        private final WalletTransaction.Pool pool;
+        private final Transaction tx;
+        private TransactionConfidence.ConfidenceType confidenceType;
+        private int appearedAtChainHeight;
+        private TransactionConfidence.Source source;
+        private Sha256Hash overridingHash;
+
+        private TransactionEntry(WalletTransaction.Pool pool, Transaction tx) {
+            this.pool = pool;
+            this.tx = tx;
+        }
+
+        private void restoreConfidence(Map<Sha256Hash, WalletTransaction> transactions) {
+            TransactionConfidence confidence = tx.getConfidence();
+            /* setting the height makes it building, so the type goes after */
+            if (appearedAtChainHeight >= 0) {
+                confidence.setAppearedAtChainHeight(appearedAtChainHeight);
+            }
+            confidence.setConfidenceType(confidenceType);
+            confidence.setSource(source);
+            WalletTransaction overriding = overridingHash != null ? transactions.get(overridingHash) : null;
+            if (overriding != null) {
+                confidence.setOverridingTransaction(overriding.getTransaction());
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package utils;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bitcoinj.wallet.UnreadableWalletException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Fast start of a journaled wallet: its WalletSummary is read at once and the wallet itself is loaded on a
+ * background thread, so balances and receive addresses can be shown while the key hierarchy and transactions
+ * are still being rebuilt.
+ */
+public class WalletLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletLoader.class);
+
+    private final WalletSummary summary;
+    private final ListenableFuture<WalletJournal> journal;
+
+    private WalletLoader(WalletSummary summary, ListenableFuture<WalletJournal> journal) {
+        this.summary = summary;
+        this.journal = journal;
+    }
+
+    /**
+     * Read the summary and start loading the wallet
+     *
+     * @param walletFile
+     * @param fsyncPolicy of the journal
+     * @param delay of the journal
+     * @param timeUnit
+     * @return
+     */
+    public static WalletLoader start(File walletFile, FsyncPolicy fsyncPolicy, long delay, TimeUnit timeUnit) {
+        checkNotNull(walletFile);
+
+        /* read before the load starts, which can compact the wallet and write a new summary */
+        WalletSummary summary = null;
+        try {
+            summary = WalletSummary.read(walletFile);
+        } catch (IOException e) {
+            log.warn("Wallet summary not read, waiting for the wallet", e);
+        }
+
+        ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("wallet-loader-%d").setDaemon(true).build()));
+        ListenableFuture<WalletJournal> journal = executor.submit(
+                () -> WalletJournal.open(walletFile, fsyncPolicy, delay, timeUnit));
+        executor.shutdown();
+
+        return new WalletLoader(summary, journal);
+    }
+
+    /**
+     * @return the summary, or null if the wallet has none up to date
+     */
+    public WalletSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * @return the wallet journal once the wallet is loaded
+     */
+    public ListenableFuture<WalletJournal> getJournal() {
+        return journal;
+    }
+
+    /**
+     * Wait for the wallet to be loaded
+     *
+     * @return
+     * @throws UnreadableWalletException
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public WalletJournal awaitJournal() throws UnreadableWalletException, IOException, InterruptedException {
+        try {
+            return journal.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnreadableWalletException) {
+                throw (UnreadableWalletException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Wallet not loaded", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package utils;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.Wallet;
+import org.bitcoinj.wallet.WalletTransaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * What a wallet service answers first: balances, the last block seen, issued key counters and receive addresses.
+ *
+ * Loading a bitcoinj wallet rebuilds every key of its hierarchy and every transaction. The summary is a small file
+ * next to the wallet, written by WalletJournal when it compacts or closes, that reads in microseconds. It is only
+ * returned while the wallet file and its journal are the ones it was written with, a summary left by a crash or by
+ * a save made elsewhere is ignored.
+ *
+ * Layout: magic "BWS" | version | snapshot length (long) | snapshot modified (long) | journal length (long)
+ *  | network id | balance | estimated balance | transactions | last block | issued keys | receive addresses
+ */
+public class WalletSummary {
+
+    public static final String SUMMARY_SUFFIX = ".summary";
+
+    private static final byte[] MAGIC = {'B', 'W', 'S'};
+    private static final byte VERSION = 1;
+
+    private final NetworkParameters params;
+    private final Coin balance;
+    private final Coin estimatedBalance;
+    private final int transactions;
+    private final Sha256Hash lastBlockSeenHash;
+    private final int lastBlockSeenHeight;
+    private final long lastBlockSeenTimeSecs;
+    private final int issuedExternalKeys;
+    private final int issuedInternalKeys;
+    private final List<Address> receiveAddresses;
+
+    WalletSummary(NetworkParameters params, Coin balance, Coin estimatedBalance, int transactions,
+                  Sha256Hash lastBlockSeenHash, int lastBlockSeenHeight, long lastBlockSeenTimeSecs,
+                  int issuedExternalKeys, int issuedInternalKeys, List<Address> receiveAddresses) {
+        this.params = params;
+        this.balance = balance;
+        this.estimatedBalance = estimatedBalance;
+        this.transactions = transactions;
+        this.lastBlockSeenHash = lastBlockSeenHash;
+        this.lastBlockSeenHeight = lastBlockSeenHeight;
+        this.lastBlockSeenTimeSecs = lastBlockSeenTimeSecs;
+        this.issuedExternalKeys = issuedExternalKeys;
+        this.issuedInternalKeys = issuedInternalKeys;
+        this.receiveAddresses = Collections.unmodifiableList(receiveAddresses);
+    }
+
+    /**
+     * Summary of a loaded wallet, receive addresses are P2SH for a married wallet
+     *
+     * @param wallet
+     * @return
+     */
+    public static WalletSummary of(Wallet wallet) {
+        checkNotNull(wallet);
+
+        NetworkParameters params = wallet.getParams();
+        int transactions = 0;
+        for (WalletTransaction.Pool pool : WalletTransaction.Pool.values()) {
+            transactions += wallet.getTransactionPool(pool).size();
+        }
+
+        DeterministicKeyChain chain = wallet.getActiveKeyChain();
+        List<Address> receiveAddresses = new ArrayList<>();
+        for (ECKey key : chain.getIssuedReceiveKeys()) {
+            receiveAddresses.add(chain.isMarried()
+                    ? Address.fromP2SHScript(params, ScriptBuilder.createP2SHOutputScript(
+                            chain.getRedeemData((DeterministicKey) key).redeemScript))
+                    : key.toAddress(params));
+        }
+
+        return new WalletSummary(params, wallet.getBalance(), wallet.getBalance(Wallet.BalanceType.ESTIMATED),
+                transactions, wallet.getLastBlockSeenHash(), wallet.getLastBlockSeenHeight(),
+                wallet.getLastBlockSeenTimeSecs(), chain.getIssuedExternalKeys(), chain.getIssuedInternalKeys(),
+                receiveAddresses);
+    }
+
+    public static File summaryFile(File walletFile) {
+        return new File(walletFile.getPath() + SUMMARY_SUFFIX);
+    }
+
+    /**
+     * Write the summary of the wallet file as it is now with a journal of journalLength bytes
+     *
+     * @param walletFile
+     * @param summary
+     * @param journalLength
+     * @param fsyncPolicy
+     * @throws IOException
+     */
+    static void write(File walletFile, WalletSummary summary, long journalLength, FsyncPolicy fsyncPolicy)
+            throws IOException {
+
+        byte[] id = summary.params.getId().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length + 1 + WalletJournal.SNAPSHOT_STAMP_LENGTH + 8
+                + 2 + id.length + 8 + 8 + 4 + 1 + Sha256Hash.LENGTH + 4 + 8 + 4 + 4
+                + 4 + summary.receiveAddresses.size() * (1 + Address.LENGTH));
+        buffer.put(MAGIC).put(VERSION);
+        WalletJournal.putSnapshotStamp(buffer, walletFile.toPath());
+        buffer.putLong(journalLength);
+        buffer.putShort((short) id.length).put(id);
+        buffer.putLong(summary.balance.value).putLong(summary.estimatedBalance.value);
+        buffer.putInt(summary.transactions);
+        buffer.put((byte) (summary.lastBlockSeenHash != null ? 1 : 0));
+        buffer.put(summary.lastBlockSeenHash != null
+                ? summary.lastBlockSeenHash.getBytes() : new byte[Sha256Hash.LENGTH]);
+        buffer.putInt(summary.lastBlockSeenHeight).putLong(summary.lastBlockSeenTimeSecs);
+        buffer.putInt(summary.issuedExternalKeys).putInt(summary.issuedInternalKeys);
+        buffer.putInt(summary.receiveAddresses.size());
+        for (Address address : summary.receiveAddresses) {
+            buffer.put((byte) (address.isP2SHAddress() ? 1 : 0)).put(address.getHash160());
+        }
+
+        FileUtils.write(summaryFile(walletFile).toPath(), buffer.array(), fsyncPolicy);
+    }
+
+    /**
+     * Read the summary of a wallet file
+     *
+     * @param walletFile
+     * @return the summary, or null if there is none or the wallet changed since it was written
+     * @throws IOException if the summary is not readable
+     */
+    public static WalletSummary read(File walletFile) throws IOException {
+        checkNotNull(walletFile);
+
+        Path path = summaryFile(walletFile).toPath();
+        if (!Files.exists(path) || !walletFile.exists()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || buffer.get() != VERSION) {
+                throw new IOException("Not a wallet summary: " + path);
+            }
+            File journalFile = WalletJournal.journalFile(walletFile);
+            if (!WalletJournal.matchesSnapshot(buffer, walletFile.toPath())
+                    || buffer.getLong() != journalFile.length()) {
+                return null;
+            }
+
+            byte[] id = new byte[buffer.getShort()];
+            buffer.get(id);
+            NetworkParameters params = NetworkParameters.fromID(new String(id, StandardCharsets.UTF_8));
+            if (params == null) {
+                throw new IOException("Unknown network in wallet summary: " + new String(id, StandardCharsets.UTF_8));
+            }
+            Coin balance = Coin.valueOf(buffer.getLong());
+            Coin estimatedBalance = Coin.valueOf(buffer.getLong());
+            int transactions = buffer.getInt();
+            boolean hasBlock = buffer.get() != 0;
+            byte[] hash = new byte[Sha256Hash.LENGTH];
+            buffer.get(hash);
+            int lastBlockSeenHeight = buffer.getInt();
+            long lastBlockSeenTimeSecs = buffer.getLong();
+            int issuedExternalKeys = buffer.getInt();
+            int issuedInternalKeys = buffer.getInt();
+
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / (1 + Address.LENGTH)) {
+                throw new IOException("Wallet summary truncated: " + path);
+            }
+            List<Address> receiveAddresses = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                boolean p2sh = buffer.get() != 0;
+                byte[] hash160 = new byte[Address.LENGTH];
+                buffer.get(hash160);
+                receiveAddresses.add(p2sh ? Address.fromP2SHHash(params, hash160) : new Address(params, hash160));
+            }
+
+            return new WalletSummary(params, balance, estimatedBalance, transactions,
+                    hasBlock ? Sha256Hash.wrap(hash) : null, lastBlockSeenHeight, lastBlockSeenTimeSecs,
+                    issuedExternalKeys, issuedInternalKeys, receiveAddresses);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Wallet summary truncated: " + path, e);
+        }
+    }
+
+    public NetworkParameters getParams() {
+        return params;
+    }
+
+    public Coin getBalance() {
+        return balance;
+    }
+
+    public Coin getEstimatedBalance() {
+        return estimatedBalance;
+    }
+
+    public int getTransactions() {
+        return transactions;
+    }
+
+    public Sha256Hash getLastBlockSeenHash() {
+        return lastBlockSeenHash;
+    }
+
+    public int getLastBlockSeenHeight() {
+        return lastBlockSeenHeight;
+    }
+
+    public long getLastBlockSeenTimeSecs() {
+        return lastBlockSeenTimeSecs;
+    }
+
+    public int getIssuedExternalKeys() {
+        return issuedExternalKeys;
+    }
+
+    public int getIssuedInternalKeys() {
+        return issuedInternalKeys;
+    }
+
+    /**
+     * Issued receive addresses, in the order they were issued
+     *
+     * @return
+     */
+    public List<Address> getReceiveAddresses() {
+        return receiveAddresses;
+    }
+
+    /**
+     * The last issued receive address
+     *
+     * @return null if none was issued
+     */
+    public Address getCurrentReceiveAddress() {
+        return receiveAddresses.isEmpty() ? null : receiveAddresses.get(receiveAddresses.size() - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "WalletSummary{balance=" + balance.toFriendlyString()
+                + ", estimated=" + estimatedBalance.toFriendlyString()
+                + ", transactions=" + transactions
+                + ", lastBlockSeenHeight=" + lastBlockSeenHeight
+                + ", issuedExternalKeys=" + issuedExternalKeys
+                + ", issuedInternalKeys=" + issuedInternalKeys + "}";
+    }
+}
@@ -0,0 +1,145 @@
+package utils;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.crypto.ChildNumber;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.crypto.HDKeyDerivation;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Derives the multisig P2SH receive addresses of a married wallet from the public account keys only
+ * (DeterministicKeyChainEntity.pub), the same addresses MarriedKeyChain issues: for every index i the redeem script
+ * is threshold-of-n over the sorted keys M/0H/0/i of every account key.
+ *
+ * Index ranges are split over a ForkJoinPool, so millions of addresses are derived using all the cores.
+ * Private or encrypted data is never needed.
+ */
+public class WatchOnlyAddressDeriver {
+
+    /* indexes derived by one task without splitting */
+    private static final int LEAF_SIZE = 512;
+
+    private final NetworkParameters params;
+    private final int threshold;
+    /* external (receive) chain M/0H/0 of every account key */
+    private final List<DeterministicKey> externalChains;
+
+    /**
+     * Receives every derived address, called concurrently from the pool threads
+     */
+    public interface AddressConsumer {
+        void accept(int index, Address address, Script redeemScript);
+    }
+
+    /**
+     * @param params
+     * @param accountKeys public account keys serialized with DeterministicKey.serializePublic
+     * @param threshold signatures required to spend
+     */
+    public WatchOnlyAddressDeriver(NetworkParameters params, List<byte[]> accountKeys, int threshold) {
+        checkNotNull(params);
+        checkNotNull(accountKeys);
+        checkArgument(threshold > 0 && threshold <= accountKeys.size(), "threshold must be between 1 and the number of keys");
+
+        this.params = params;
+        this.threshold = threshold;
+
+        List<DeterministicKey> chains = new ArrayList<>(accountKeys.size());
+        for (byte[] serialized : accountKeys) {
+            DeterministicKey accountKey = DeterministicKey.deserialize(params, serialized, null);
+            checkArgument(accountKey.isPubKeyOnly(), "account keys must be public only");
+            chains.add(HDKeyDerivation.deriveChildKey(accountKey, ChildNumber.ZERO));
+        }
+        this.externalChains = ImmutableList.copyOf(chains);
+    }
+
+    /**
+     * Derive addresses of indexes [from, to) with one thread per core
+     *
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param consumer
+     */
+    public void derive(int from, int to, AddressConsumer consumer) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            derive(from, to, consumer, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Derive addresses of indexes [from, to) in the given pool
+     *
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @param consumer
+     * @param pool
+     */
+    public void derive(int from, int to, AddressConsumer consumer, ForkJoinPool pool) {
+        checkArgument(from >= 0 && from <= to, "invalid index range");
+        checkNotNull(consumer);
+
+        pool.invoke(new DeriveRange(from, to, consumer));
+    }
+
+    /**
+     * Redeem script of one index
+     *
+     * @param index
+     * @return
+     */
+    public Script redeemScript(int index) {
+
+        ChildNumber child = new ChildNumber(index, false);
+        List<ECKey> keys = new ArrayList<>(externalChains.size());
+        for (DeterministicKey chain : externalChains) {
+            /* raw public key bytes, skipping the DeterministicKey of every leaf */
+            keys.add(ECKey.fromPublicOnly(HDKeyDerivation.deriveChildKeyBytesFromPublic(chain, child,
+                    HDKeyDerivation.PublicDeriveMode.NORMAL).keyBytes));
+        }
+
+        /* sorts the keys as MarriedKeyChain does */
+        return ScriptBuilder.createRedeemScript(threshold, keys);
+    }
+
+    private final class DeriveRange extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+        private final AddressConsumer consumer;
+
+        private DeriveRange(int from, int to, AddressConsumer consumer) {
+            this.from = from;
+            this.to = to;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++) {
+                    Script redeemScript = redeemScript(i);
+                    Address address = Address.fromP2SHScript(params, ScriptBuilder.createP2SHOutputScript(redeemScript));
+                    consumer.accept(i, address, redeemScript);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DeriveRange(from, middle, consumer), new DeriveRange(middle, to, consumer));
+            }
+        }
+    }
+}
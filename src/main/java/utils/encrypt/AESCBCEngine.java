@@ -0,0 +1,121 @@
+package utils.encrypt;
+
+import org.bitcoinj.crypto.KeyCrypterException;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * AES CBC with PKCS#7 padding, the same as KeyCrypterScrypt, so it reads and writes the same EncryptedData.
+ *
+ * Every thread reuses its own Cipher, and data is processed from ByteBuffer to ByteBuffer (heap or direct) without
+ * intermediate copies, so bulk jobs make almost no garbage. No key outlives a call: its spec is built per call and
+ * the cipher is set back to a zero key afterwards, so derived keys are only kept, and wiped, by DerivedKeyCache.
+ */
+public class AESCBCEngine {
+
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final String ALGORITHM = "AES";
+    public static final int BLOCK_LENGTH = 16;
+
+    private static final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial(AESCBCEngine::newCipher);
+
+    /* set after every call, so the cipher of a thread does not keep the last key */
+    private static final SecretKeySpec ZERO_KEY = new SecretKeySpec(new byte[32], ALGORITHM);
+    private static final IvParameterSpec ZERO_IV = new IvParameterSpec(new byte[BLOCK_LENGTH]);
+
+    /**
+     * Max bytes written by encrypt for an input length
+     *
+     * @param inputLength
+     * @return
+     */
+    public static int encryptedLength(int inputLength) {
+        return (inputLength / BLOCK_LENGTH + 1) * BLOCK_LENGTH;
+    }
+
+    /**
+     * Encrypt the remaining bytes of in into out
+     *
+     * @param key
+     * @param iv BLOCK_LENGTH bytes
+     * @param in
+     * @param out with at least encryptedLength(in.remaining()) bytes remaining
+     * @return bytes written to out
+     */
+    public static int encrypt(KeyParameter key, byte[] iv, ByteBuffer in, ByteBuffer out) {
+        return doFinal(Cipher.ENCRYPT_MODE, key, iv, in, out);
+    }
+
+    /**
+     * Decrypt the remaining bytes of in into out
+     *
+     * @param key
+     * @param iv BLOCK_LENGTH bytes
+     * @param in
+     * @param out with at least in.remaining() bytes remaining
+     * @return bytes written to out
+     */
+    public static int decrypt(KeyParameter key, byte[] iv, ByteBuffer in, ByteBuffer out) {
+        return doFinal(Cipher.DECRYPT_MODE, key, iv, in, out);
+    }
+
+    public static byte[] encrypt(KeyParameter key, byte[] iv, byte[] plain) {
+
+        checkNotNull(plain);
+
+        byte[] encrypted = new byte[encryptedLength(plain.length)];
+        encrypt(key, iv, ByteBuffer.wrap(plain), ByteBuffer.wrap(encrypted));
+
+        return encrypted;
+    }
+
+    public static byte[] decrypt(KeyParameter key, byte[] iv, byte[] encrypted) {
+
+        checkNotNull(encrypted);
+
+        byte[] buffer = new byte[encrypted.length];
+        int length = decrypt(key, iv, ByteBuffer.wrap(encrypted), ByteBuffer.wrap(buffer));
+
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    private static int doFinal(int mode, KeyParameter key, byte[] iv, ByteBuffer in, ByteBuffer out) {
+
+        checkNotNull(key);
+        checkNotNull(iv);
+        checkArgument(iv.length == BLOCK_LENGTH, "IV must be " + BLOCK_LENGTH + " bytes");
+
+        Cipher threadCipher = cipher.get();
+        try {
+            threadCipher.init(mode, new SecretKeySpec(key.getKey(), ALGORITHM), new IvParameterSpec(iv));
+            return threadCipher.doFinal(in, out);
+        } catch (GeneralSecurityException e) {
+            throw new KeyCrypterException("Could not " + (mode == Cipher.ENCRYPT_MODE ? "encrypt" : "decrypt")
+                    + " bytes", e);
+        } finally {
+            try {
+                threadCipher.init(Cipher.ENCRYPT_MODE, ZERO_KEY, ZERO_IV);
+            } catch (GeneralSecurityException e) {
+                /* the next call of the thread gets a new cipher */
+                cipher.remove();
+            }
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(TRANSFORMATION + " not available", e);
+        }
+    }
+}
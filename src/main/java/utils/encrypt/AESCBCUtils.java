@@ -3,6 +3,15 @@ package utils.encrypt;
 import domain.EncryptedData;
 import org.bitcoinj.crypto.KeyCrypter;
 import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -14,47 +23,205 @@ public class AESCBCUtils{
     private static final String CIPHER = "AES";
     private static final String BLOCK_MODE = "CBC";
 
+    /* opt-in cache of derived keys for decrypt, disabled by default */
+    private static volatile DerivedKeyCache derivedKeyCache;
+
+    /**
+     * Enable a derived key cache for decrypt, or disable it with null
+     *
+     * @param cache
+     */
+    public static void setDerivedKeyCache(DerivedKeyCache cache) {
+        DerivedKeyCache previous = derivedKeyCache;
+        derivedKeyCache = cache;
+        if (previous != null && previous != cache) {
+            previous.invalidateAll();
+        }
+    }
+
+    public static DerivedKeyCache getDerivedKeyCache() {
+        return derivedKeyCache;
+    }
+
     public static EncryptedData encrypt(byte[] textPlain, CharSequence password, long iter) {
 
+        return encrypt(textPlain, password, KdfParameters.of(iter));
+    }
+
+    public static EncryptedData encrypt(byte[] textPlain, CharSequence password, KdfParameters kdfParameters) {
+
         checkNotNull(textPlain);
+
+        return encrypt(Collections.singletonList(textPlain), password, kdfParameters).get(0);
+    }
+
+    public static List<EncryptedData> encrypt(List<byte[]> textPlains, CharSequence password, long iter) {
+
+        return encrypt(textPlains, password, KdfParameters.of(iter));
+    }
+
+    /**
+     * Encrypt several payloads deriving the key only once: all of them share the salt and iterations
+     * and each one gets its own random IV
+     *
+     * @param textPlains
+     * @param password
+     * @param kdfParameters scrypt N, r and p
+     * @return encrypted data in the same order as textPlains
+     */
+    public static List<EncryptedData> encrypt(List<byte[]> textPlains, CharSequence password, KdfParameters kdfParameters) {
+
+        checkNotNull(textPlains);
         checkNotNull(password);
+        checkNotNull(kdfParameters);
 
         /* random salt */
         byte[] salt = KeyCrypterBuilder.getSalt();
 
         /* get keyCrypter */
-        KeyCrypter keyCrypter = KeyCrypterBuilder.getKeyCrypter(salt, iter);
+        KeyCrypter keyCrypter = KeyCrypterBuilder.getKeyCrypter(salt, kdfParameters);
+
+        /* one derivation for all the payloads */
+        KeyParameter key = KeyCrypterBuilder.deriveKey(keyCrypter, password);
+
+        List<EncryptedData> encrypted = new ArrayList<>(textPlains.size());
+        for (byte[] textPlain : textPlains) {
+            checkNotNull(textPlain);
+
+            /* encrypt data, a new IV for every payload */
+            byte[] iv = KeyCrypterBuilder.getIv();
+            byte[] data = AESCBCEngine.encrypt(key, iv, textPlain);
+
+            EncryptedData encryptedData = new EncryptedData(
+                    iv,
+                    kdfParameters.getN(),
+                    CIPHER,
+                    KeyCrypterScrypt.KEY_LENGTH * 8,
+                    BLOCK_MODE,
+                    KeyCrypterScrypt.BLOCK_LENGTH * 8,
+                    salt,
+                    KeyCrypterScrypt.SALT_LENGTH * 8,
+                    data);
+            encryptedData.setR(kdfParameters.getR());
+            encryptedData.setP(kdfParameters.getP());
+            encrypted.add(encryptedData);
+        }
+
+        return encrypted;
+    }
 
-        /* encrypt data */
-        org.bitcoinj.crypto.EncryptedData data = keyCrypter.encrypt(textPlain, keyCrypter.deriveKey(password));
+    public static byte[] decrypt(EncryptedData encryptedData, CharSequence password) {
 
-        //Base64.Encoder encoder = Base64.getEncoder();
-        return new EncryptedData(
-                data.initialisationVector,
-                iter,
-                CIPHER,
-                KeyCrypterScrypt.KEY_LENGTH * 8,
-                BLOCK_MODE,
-                KeyCrypterScrypt.BLOCK_LENGTH * 8,
-                salt,
-                KeyCrypterScrypt.SALT_LENGTH * 8,
-                data.encryptedBytes);
+        checkNotNull(encryptedData);
 
+        return decrypt(Collections.singletonList(encryptedData), password).get(0);
     }
 
-    public static byte[] decrypt(EncryptedData encryptedData, CharSequence password) {
+    /**
+     * Decrypt several payloads deriving the key once for every distinct salt and scrypt parameters,
+     * e.g. the key and seed encrypted together with encrypt(List, CharSequence, long)
+     *
+     * @param encryptedData
+     * @param password
+     * @return plain texts in the same order as encryptedData
+     */
+    public static List<byte[]> decrypt(List<EncryptedData> encryptedData, CharSequence password) {
+
+        checkNotNull(encryptedData);
+        checkNotNull(password);
 
-        checkNotNull(encryptedData.getIter());
-        checkNotNull(encryptedData.getData());
-        checkNotNull(encryptedData.getIter());
-        checkNotNull(encryptedData.getSalt());
+        Map<KdfKey, KeyParameter> keys = new HashMap<>();
+        List<byte[]> decrypted = new ArrayList<>(encryptedData.size());
+
+        for (EncryptedData data : encryptedData) {
+            checkNotNull(data.getIv());
+            checkNotNull(data.getData());
+            checkNotNull(data.getSalt());
+
+            KdfParameters kdfParameters = kdfParameters(data);
+
+            /* get keyCrypter */
+            KeyCrypter keyCrypter = KeyCrypterBuilder.getKeyCrypter(data.getSalt(), kdfParameters);
+
+            KdfKey kdfKey = new KdfKey(data.getSalt(), kdfParameters);
+            KeyParameter key = keys.get(kdfKey);
+            if (key == null) {
+                key = deriveKey(keyCrypter, data.getSalt(), kdfParameters, password);
+                keys.put(kdfKey, key);
+            }
+
+            decrypted.add(AESCBCEngine.decrypt(key, data.getIv(), data.getData()));
+        }
+
+        return decrypted;
+    }
+
+    /**
+     * Decrypt into a buffer, heap or direct, without allocating the plain text
+     *
+     * @param encryptedData
+     * @param password
+     * @param out with at least encryptedData.getData().length bytes remaining
+     * @return bytes written to out
+     */
+    public static int decrypt(EncryptedData encryptedData, CharSequence password, ByteBuffer out) {
+
+        checkNotNull(encryptedData);
         checkNotNull(password);
+        checkNotNull(out);
 
-        /* get keyCrypter */
-        KeyCrypter keyCrypter = KeyCrypterBuilder.getKeyCrypter(encryptedData.getSalt(), encryptedData.getIter());
+        KdfParameters kdfParameters = kdfParameters(encryptedData);
+        KeyCrypter keyCrypter = KeyCrypterBuilder.getKeyCrypter(encryptedData.getSalt(), kdfParameters);
+        KeyParameter key = deriveKey(keyCrypter, encryptedData.getSalt(), kdfParameters, password);
 
-        return keyCrypter.decrypt(new org.bitcoinj.crypto.EncryptedData(encryptedData.getIv(), encryptedData.getData()),
-                keyCrypter.deriveKey(password));
+        return AESCBCEngine.decrypt(key, encryptedData.getIv(), ByteBuffer.wrap(encryptedData.getData()), out);
+    }
+
+    /**
+     * scrypt parameters, defaults for data encrypted before r and p were stored
+     */
+    private static KdfParameters kdfParameters(EncryptedData data) {
+
+        return new KdfParameters(data.getIter(),
+                data.getR() > 0 ? data.getR() : KdfParameters.DEFAULT_R,
+                data.getP() > 0 ? data.getP() : KdfParameters.DEFAULT_P);
+    }
+
+    /**
+     * Derive key, from the cache if enabled
+     */
+    private static KeyParameter deriveKey(KeyCrypter keyCrypter, byte[] salt, KdfParameters kdfParameters,
+                                          CharSequence password) {
+
+        DerivedKeyCache cache = derivedKeyCache;
+
+        return cache != null
+                ? cache.deriveKey(keyCrypter, salt, kdfParameters, password)
+                : KeyCrypterBuilder.deriveKey(keyCrypter, password);
+    }
 
+    /**
+     * KDF parameters that identify a derived key inside a batch
+     */
+    private static final class KdfKey {
+        private final byte[] salt;
+        private final KdfParameters kdfParameters;
+
+        private KdfKey(byte[] salt, KdfParameters kdfParameters) {
+            this.salt = salt;
+            this.kdfParameters = kdfParameters;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof KdfKey)) return false;
+            KdfKey other = (KdfKey) o;
+            return kdfParameters.equals(other.kdfParameters) && Arrays.equals(salt, other.salt);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(salt) + kdfParameters.hashCode();
+        }
     }
 }
@@ -0,0 +1,213 @@
+package utils.encrypt;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.crypto.KeyCrypter;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A bounded cache of scrypt derived keys, used by AESCBCUtils.decrypt when enabled.
+ *
+ * Entries are keyed by salt, scrypt parameters and a salted fingerprint of the password (the password itself is never stored).
+ * They are evicted by size (least recently used first) and by time to live, and the key bytes of every
+ * evicted entry are wiped. Callers always receive a copy of the cached key.
+ */
+public class DerivedKeyCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<CacheKey, CacheEntry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries max number of derived keys kept in memory
+     * @param ttl time to live of a derived key since it was derived
+     * @param unit time unit of ttl
+     */
+    public DerivedKeyCache(int maxEntries, long ttl, TimeUnit unit) {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        checkArgument(ttl > 0, "ttl must be positive");
+
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        /* access order to evict the least recently used key first */
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Return the derived key for the given parameters, running the KDF of the keyCrypter only on a miss
+     *
+     * @param keyCrypter keyCrypter built with the same salt and scrypt parameters
+     * @param salt
+     * @param kdfParameters
+     * @param password
+     * @return a copy of the derived key
+     */
+    public KeyParameter deriveKey(KeyCrypter keyCrypter, byte[] salt, KdfParameters kdfParameters, CharSequence password) {
+
+        checkNotNull(keyCrypter);
+        checkNotNull(salt);
+        checkNotNull(kdfParameters);
+        checkNotNull(password);
+
+        CacheKey cacheKey = new CacheKey(salt, kdfParameters, fingerprint(salt, kdfParameters, password));
+        long now = System.nanoTime();
+
+        synchronized (entries) {
+            CacheEntry entry = entries.get(cacheKey);
+            if (entry != null) {
+                if (now - entry.created < ttlNanos) {
+                    hits.incrementAndGet();
+                    return new KeyParameter(entry.key.getKey());
+                }
+                entries.remove(cacheKey);
+                wipe(entry);
+            }
+        }
+
+        /* derive out of the lock, a concurrent miss for the same key only costs one more derivation */
+        misses.incrementAndGet();
+        KeyParameter key = KeyCrypterBuilder.deriveKey(keyCrypter, password);
+
+        synchronized (entries) {
+            purgeExpired(now);
+            CacheEntry previous = entries.put(cacheKey, new CacheEntry(new KeyParameter(key.getKey()), now));
+            if (previous != null) {
+                wipe(previous);
+            }
+            Iterator<CacheEntry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                CacheEntry evicted = eldest.next();
+                eldest.remove();
+                wipe(evicted);
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * Remove and wipe all cached keys
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            for (CacheEntry entry : entries.values()) {
+                wipe(entry);
+            }
+            entries.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DerivedKeyCache(size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ")";
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<CacheEntry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            CacheEntry entry = it.next();
+            if (now - entry.created >= ttlNanos) {
+                it.remove();
+                wipe(entry);
+            }
+        }
+    }
+
+    private void wipe(CacheEntry entry) {
+        /* KeyParameter.getKey() returns its internal array */
+        Arrays.fill(entry.key.getKey(), (byte) 0);
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * SHA-256 of salt, scrypt parameters and password, so the cache never holds the password
+     */
+    private static byte[] fingerprint(byte[] salt, KdfParameters kdfParameters, CharSequence password) {
+
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] buffer = new byte[salt.length + 16 + encoded.remaining()];
+        ByteBuffer.wrap(buffer).put(salt).putLong(kdfParameters.getN()).putInt(kdfParameters.getR())
+                .putInt(kdfParameters.getP()).put(encoded);
+
+        byte[] fingerprint = Sha256Hash.hash(buffer);
+
+        Arrays.fill(buffer, (byte) 0);
+        if (encoded.hasArray()) {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+
+        return fingerprint;
+    }
+
+    private static final class CacheEntry {
+        private final KeyParameter key;
+        private final long created;
+
+        private CacheEntry(KeyParameter key, long created) {
+            this.key = key;
+            this.created = created;
+        }
+    }
+
+    private static final class CacheKey {
+        private final byte[] salt;
+        private final KdfParameters kdfParameters;
+        private final byte[] fingerprint;
+        private final int hash;
+
+        private CacheKey(byte[] salt, KdfParameters kdfParameters, byte[] fingerprint) {
+            this.salt = salt.clone();
+            this.kdfParameters = kdfParameters;
+            this.fingerprint = fingerprint;
+            this.hash = Arrays.hashCode(fingerprint);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey other = (CacheKey) o;
+            return kdfParameters.equals(other.kdfParameters) && Arrays.equals(salt, other.salt)
+                    && Arrays.equals(fingerprint, other.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package utils.encrypt;
+
+import org.bitcoinj.crypto.KeyCrypter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Picks scrypt parameters for the current machine measuring how long a derivation takes.
+ *
+ * N is the largest power of 2 whose derivation fits the latency budget and whose 128 * r * N bytes fit the memory
+ * ceiling. Note the scrypt of SpongyCastle computes the p lanes one after another, so a bigger p is paid with a
+ * smaller N for the same latency.
+ */
+public class KdfCalibrator {
+
+    private static final Logger log = LoggerFactory.getLogger(KdfCalibrator.class);
+
+    private static final long MIN_N = 1024;
+    private static final int WARM_UP = 3;
+    private static final String PASSWORD = "calibration";
+
+    /**
+     * Calibrate with default r and p
+     *
+     * @param targetMillis latency budget of one derivation
+     * @param memoryCeiling max bytes allocated by one derivation
+     * @return
+     */
+    public static KdfParameters calibrate(long targetMillis, long memoryCeiling) {
+        return calibrate(targetMillis, memoryCeiling, KdfParameters.DEFAULT_R, KdfParameters.DEFAULT_P);
+    }
+
+    /**
+     * Calibrate N for the given r and p
+     *
+     * @param targetMillis latency budget of one derivation
+     * @param memoryCeiling max bytes allocated by one derivation
+     * @param r
+     * @param p
+     * @return
+     */
+    public static KdfParameters calibrate(long targetMillis, long memoryCeiling, int r, int p) {
+
+        checkArgument(targetMillis > 0, "targetMillis must be positive");
+        checkArgument(memoryCeiling >= KdfScheduler.memoryCost(MIN_N, r), "memoryCeiling too small for r=" + r);
+
+        /* cost of the smallest N, the best of a few runs after warming up */
+        double baseMillis = Double.MAX_VALUE;
+        for (int i = 0; i < WARM_UP; i++) {
+            baseMillis = Math.min(baseMillis, measure(new KdfParameters(MIN_N, r, p)));
+        }
+
+        /* scrypt time grows linearly with N */
+        long n = MIN_N;
+        while (baseMillis * (n * 2) / MIN_N <= targetMillis && KdfScheduler.memoryCost(n * 2, r) <= memoryCeiling) {
+            n *= 2;
+        }
+
+        /* check the estimation and step down while it is over budget */
+        double millis = measure(new KdfParameters(n, r, p));
+        while (millis > targetMillis && n > MIN_N) {
+            n /= 2;
+            millis = measure(new KdfParameters(n, r, p));
+        }
+
+        KdfParameters parameters = new KdfParameters(n, r, p);
+        log.info("Calibrated scrypt N={} r={} p={}: {} ms and {} bytes per derivation", n, r, p,
+                String.format("%.1f", millis), parameters.memoryCost());
+
+        return parameters;
+    }
+
+    /**
+     * Milliseconds of one derivation
+     */
+    private static double measure(KdfParameters parameters) {
+
+        KeyCrypter keyCrypter = KeyCrypterBuilder.getKeyCrypter(KeyCrypterBuilder.getSalt(), parameters);
+
+        long start = System.nanoTime();
+        keyCrypter.deriveKey(PASSWORD);
+
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
@@ -0,0 +1,49 @@
+package utils.encrypt;
+
+import lombok.Value;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * scrypt cost parameters: N (iterations), r (block size) and p (parallelization)
+ */
+@Value
+public class KdfParameters {
+
+    /* scrypt defaults used by BitcoinJ ScryptParameters */
+    public static final int DEFAULT_R = 8;
+    public static final int DEFAULT_P = 1;
+
+    private final long n;
+    private final int r;
+    private final int p;
+
+    public KdfParameters(long n, int r, int p) {
+        checkArgument(n > 1 && (n & (n - 1)) == 0, "N must be a power of 2 greater than 1");
+        checkArgument(r > 0, "r must be positive");
+        checkArgument(p > 0, "p must be positive");
+
+        this.n = n;
+        this.r = r;
+        this.p = p;
+    }
+
+    /**
+     * Parameters with N iterations and default r and p
+     *
+     * @param n
+     * @return
+     */
+    public static KdfParameters of(long n) {
+        return new KdfParameters(n, DEFAULT_R, DEFAULT_P);
+    }
+
+    /**
+     * Bytes allocated by one derivation
+     *
+     * @return
+     */
+    public long memoryCost() {
+        return KdfScheduler.memoryCost(n, r);
+    }
+}
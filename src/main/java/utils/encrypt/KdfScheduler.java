@@ -0,0 +1,205 @@
+package utils.encrypt;
+
+import com.codahale.metrics.Timer;
+import org.bitcoinj.crypto.KeyCrypter;
+import org.bitcoinj.crypto.KeyCrypterException;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.bitcoinj.wallet.Protos;
+import org.spongycastle.crypto.params.KeyParameter;
+import utils.Metrics;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Admission control for scrypt derivations.
+ *
+ * Every derivation allocates 128 * r * N bytes (16 MB with N=16384 and r=8), so running many of them at once can
+ * exhaust the heap. A derivation is admitted only while the memory of the derivations in flight stays within the
+ * budget and there is a free core; the excess waits in FIFO order up to a timeout.
+ */
+public class KdfScheduler {
+
+    private static final int KB = 1024;
+    /* scrypt r when ScryptParameters does not set it */
+    private static final int DEFAULT_R = 8;
+
+    private static volatile KdfScheduler defaultScheduler = new KdfScheduler(Runtime.getRuntime().maxMemory() / 4,
+            Runtime.getRuntime().availableProcessors(), 60, TimeUnit.SECONDS);
+
+    private final int budgetKb;
+    private final int maxConcurrent;
+    private final long timeoutNanos;
+    private final Semaphore memory;
+    private final Semaphore cores;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param memoryBudget max bytes allocated by derivations in flight
+     * @param maxConcurrent max derivations in flight, usually the number of cores
+     * @param timeout max time a derivation waits to be admitted
+     * @param unit time unit of timeout
+     */
+    public KdfScheduler(long memoryBudget, int maxConcurrent, long timeout, TimeUnit unit) {
+        checkArgument(memoryBudget >= KB, "memoryBudget too small");
+        checkArgument(maxConcurrent > 0, "maxConcurrent must be positive");
+
+        this.budgetKb = (int) Math.min(Integer.MAX_VALUE, memoryBudget / KB);
+        this.maxConcurrent = maxConcurrent;
+        this.timeoutNanos = unit.toNanos(timeout);
+        /* fair semaphores, waiting derivations are admitted in arrival order */
+        this.memory = new Semaphore(budgetKb, true);
+        this.cores = new Semaphore(maxConcurrent, true);
+    }
+
+    public static KdfScheduler getDefault() {
+        return defaultScheduler;
+    }
+
+    public static void setDefault(KdfScheduler scheduler) {
+        defaultScheduler = checkNotNull(scheduler);
+    }
+
+    /**
+     * Bytes allocated by one scrypt derivation
+     *
+     * @param n
+     * @param r
+     * @return
+     */
+    public static long memoryCost(long n, int r) {
+        return 128L * r * n;
+    }
+
+    /**
+     * Derive the key once admitted
+     *
+     * @param keyCrypter
+     * @param password
+     * @return
+     * @throws KeyCrypterException if it is not admitted before the timeout or the thread is interrupted
+     */
+    public KeyParameter deriveKey(KeyCrypter keyCrypter, CharSequence password) throws KeyCrypterException {
+
+        checkNotNull(keyCrypter);
+
+        int permits = permits(keyCrypter);
+        long start = System.nanoTime();
+
+        queued.incrementAndGet();
+        try {
+            if (!memory.tryAcquire(permits, timeoutNanos, TimeUnit.NANOSECONDS)) {
+                timedOut.incrementAndGet();
+                throw new KeyCrypterException("Key derivation not admitted in " +
+                        TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms, not enough memory budget");
+            }
+            long remaining = timeoutNanos - (System.nanoTime() - start);
+            if (!cores.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                memory.release(permits);
+                timedOut.incrementAndGet();
+                throw new KeyCrypterException("Key derivation not admitted in " +
+                        TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms, all cores busy");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeyCrypterException("Interrupted waiting for key derivation", e);
+        } finally {
+            queued.decrementAndGet();
+        }
+
+        recordWait(System.nanoTime() - start);
+        inFlight.incrementAndGet();
+        try (Timer.Context ignored = Metrics.timer(Metrics.KDF_DERIVE).time()) {
+            return keyCrypter.deriveKey(password);
+        } finally {
+            inFlight.decrementAndGet();
+            cores.release();
+            memory.release(permits);
+        }
+    }
+
+    /**
+     * Derivations waiting to be admitted
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Derivations running
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = admitted.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * Memory budget not used by derivations in flight, in bytes
+     */
+    public long getAvailableMemory() {
+        return (long) memory.availablePermits() * KB;
+    }
+
+    @Override
+    public String toString() {
+        return "KdfScheduler(budget=" + (long) budgetKb * KB + ", maxConcurrent=" + maxConcurrent
+                + ", queued=" + getQueueDepth() + ", inFlight=" + getInFlight() + ", admitted=" + getAdmitted()
+                + ", timedOut=" + getTimedOut() + ", avgWaitMs=" + String.format("%.2f", getAverageWaitMillis())
+                + ", maxWaitMs=" + String.format("%.2f", getMaxWaitMillis()) + ")";
+    }
+
+    private void recordWait(long waitNanos) {
+        admitted.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        Metrics.timer(Metrics.KDF_ADMISSION_WAIT).update(waitNanos, TimeUnit.NANOSECONDS);
+        long max;
+        while (waitNanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            // retry
+        }
+    }
+
+    /**
+     * Memory permits of a derivation, capped to the budget so a huge one still runs alone
+     */
+    private int permits(KeyCrypter keyCrypter) {
+
+        long n = 0;
+        int r = DEFAULT_R;
+        if (keyCrypter instanceof KeyCrypterScrypt) {
+            Protos.ScryptParameters parameters = ((KeyCrypterScrypt) keyCrypter).getScryptParameters();
+            n = parameters.getN();
+            r = parameters.getR();
+        }
+
+        long kb = (memoryCost(n, r) + KB - 1) / KB;
+
+        return (int) Math.max(1, Math.min(budgetKb, kb));
+    }
+}
@@ -4,16 +4,13 @@ import com.google.protobuf.ByteString;
 import org.bitcoinj.crypto.KeyCrypter;
 import org.bitcoinj.crypto.KeyCrypterScrypt;
 import org.bitcoinj.wallet.Protos;
-
-import java.security.SecureRandom;
+import org.spongycastle.crypto.params.KeyParameter;
 
 /**
  * A builder to create a KeyCrypter from BitcoinJ used in AESCBCUtils.
  */
 public class KeyCrypterBuilder {
 
-    final private static SecureRandom secureRandom = new SecureRandom();
-
     /**
      * Return a secure random salt
      *
@@ -21,11 +18,23 @@ public class KeyCrypterBuilder {
      */
     public static byte[] getSalt() {
         final byte[] salt = new byte[KeyCrypterScrypt.SALT_LENGTH];
-        secureRandom.nextBytes(salt);
+        RandomSource.nextBytes(salt);
 
         return salt;
     }
 
+    /**
+     * Return a secure random initialisation vector for AES CBC
+     *
+     * @return
+     */
+    public static byte[] getIv() {
+        final byte[] iv = new byte[AESCBCEngine.BLOCK_LENGTH];
+        RandomSource.nextBytes(iv);
+
+        return iv;
+    }
+
     /**
      * Generate a KeyCrypter
      *
@@ -35,7 +44,54 @@ public class KeyCrypterBuilder {
      */
     public static KeyCrypter getKeyCrypter(byte[] salt, long iterations) {
 
-        return new KeyCrypterScrypt(Protos.ScryptParameters.newBuilder().setSalt(ByteString.copyFrom(salt))
-                .setN(iterations).build());
+        return getKeyCrypter(salt, iterations, 0, 0);
+    }
+
+    /**
+     * Generate a KeyCrypter
+     *
+     * @param salt
+     * @param parameters
+     * @return
+     */
+    public static KeyCrypter getKeyCrypter(byte[] salt, KdfParameters parameters) {
+
+        return getKeyCrypter(salt, parameters.getN(), parameters.getR(), parameters.getP());
+    }
+
+    /**
+     * Generate a KeyCrypter, r or p with 0 take the scrypt defaults (data encrypted before they were stored)
+     *
+     * @param salt
+     * @param iterations
+     * @param r
+     * @param p
+     * @return
+     */
+    public static KeyCrypter getKeyCrypter(byte[] salt, long iterations, int r, int p) {
+
+        Protos.ScryptParameters.Builder parameters = Protos.ScryptParameters.newBuilder()
+                .setSalt(ByteString.copyFrom(salt))
+                .setN(iterations);
+        if (r > 0) {
+            parameters.setR(r);
+        }
+        if (p > 0) {
+            parameters.setP(p);
+        }
+
+        return new KeyCrypterScrypt(parameters.build());
+    }
+
+    /**
+     * Derive the key of a KeyCrypter once admitted by the default KdfScheduler
+     *
+     * @param keyCrypter
+     * @param password
+     * @return
+     */
+    public static KeyParameter deriveKey(KeyCrypter keyCrypter, CharSequence password) {
+
+        return KdfScheduler.getDefault().deriveKey(keyCrypter, password);
     }
 }
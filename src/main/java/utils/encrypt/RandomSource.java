@@ -0,0 +1,89 @@
+package utils.encrypt;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Source of randomness for salts, IVs and HD entropy.
+ *
+ * Every thread gets its own DRBG seeded from the operating system, so parallel key generation does not serialize on
+ * one generator or on the system entropy source. A thread's generator is reseeded from the operating system after
+ * RESEED_USES uses or RESEED_INTERVAL_MILLIS, whichever comes first.
+ */
+public class RandomSource {
+
+    /* DRBG of Java 9+, SHA1PRNG otherwise */
+    private static final String[] ALGORITHMS = {"DRBG", "SHA1PRNG"};
+    private static final int SEED_LENGTH = 32;
+    public static final long RESEED_USES = 10000;
+    public static final long RESEED_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+    /* non blocking OS source (/dev/urandom on Linux), only used for seeding */
+    private static final SecureRandom osRandom = new SecureRandom();
+
+    private static final ThreadLocal<ReseedingRandom> local = ThreadLocal.withInitial(ReseedingRandom::new);
+
+    /**
+     * The generator of the current thread, it must not be shared with other threads
+     *
+     * @return
+     */
+    public static SecureRandom get() {
+        return local.get().use();
+    }
+
+    /**
+     * Fill bytes with the generator of the current thread
+     *
+     * @param bytes
+     */
+    public static void nextBytes(byte[] bytes) {
+        get().nextBytes(bytes);
+    }
+
+    private static SecureRandom newDrbg() {
+        for (String algorithm : ALGORITHMS) {
+            try {
+                return SecureRandom.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                // try next
+            }
+        }
+        return new SecureRandom();
+    }
+
+    private static byte[] osSeed() {
+        byte[] seed = new byte[SEED_LENGTH];
+        osRandom.nextBytes(seed);
+        return seed;
+    }
+
+    /**
+     * A thread generator with its reseed schedule
+     */
+    private static final class ReseedingRandom {
+
+        private final SecureRandom random;
+        private long uses;
+        private long seeded;
+
+        private ReseedingRandom() {
+            random = newDrbg();
+            /* seeding before the first use replaces the self seeding of SHA1PRNG */
+            reseed();
+        }
+
+        private SecureRandom use() {
+            if (++uses >= RESEED_USES || System.currentTimeMillis() - seeded >= RESEED_INTERVAL_MILLIS) {
+                reseed();
+            }
+            return random;
+        }
+
+        private void reseed() {
+            random.setSeed(osSeed());
+            uses = 0;
+            seeded = System.currentTimeMillis();
+        }
+    }
+}
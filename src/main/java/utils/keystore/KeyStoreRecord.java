@@ -0,0 +1,388 @@
+package utils.keystore;
+
+import domain.DeterministicKeyChainEntity;
+import domain.EncryptedData;
+import domain.WalletEntity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A wallet record of a MappedKeyStore, read in place from the mapped file.
+ *
+ * Fields are read on demand at fixed offsets, nothing is parsed or copied until it is asked for, and byte fields
+ * can be read as read-only views of the mapping.
+ *
+ * Layout (offsets in bytes, big endian numbers):
+ *
+ *  0 length | 4 marker | 8 crc32 of [12, length) | 12 generation | 16 created | 24 backup created
+ *  32 server created | 40 fingerprint (20) | 60 name length | 62 pub length | 64 backup pub length
+ *  66 server pub length | 68 encrypted length | 70 seed encrypted length | 72 backup encrypted length
+ *  74 backup seed encrypted length | 76 server encrypted length | 78 server seed encrypted length | 80 flags
+ *  88 name, pub, backup pub, server pub, then the encrypted data blocks in the order of their lengths
+ *
+ * and every encrypted data block:
+ *
+ *  0 iter | 8 ks | 12 bs | 16 sl | 20 r | 24 p | 28 cipher, mode, iv and salt lengths (1 byte each) | 32 data length
+ *  36 cipher, mode, iv, salt, data
+ */
+public class KeyStoreRecord {
+
+    static final int LENGTH = 0;
+    static final int MARKER = 4;
+    static final int CRC = 8;
+    static final int GENERATION = 12;
+    private static final int CREATED = 16;
+    private static final int BACKUP_CREATED = 24;
+    private static final int SERVER_CREATED = 32;
+    private static final int FINGERPRINT = 40;
+    private static final int NAME_LENGTH = 60;
+    private static final int PUB_LENGTH = 62;
+    private static final int BACKUP_PUB_LENGTH = 64;
+    private static final int SERVER_PUB_LENGTH = 66;
+    /* lengths of the encrypted data blocks, one short each */
+    private static final int ENCRYPTED_LENGTH = 68;
+    private static final int KEY_ENCRYPTED = 0;
+    private static final int KEY_SEED_ENCRYPTED = 1;
+    private static final int BACKUP_ENCRYPTED = 2;
+    private static final int BACKUP_SEED_ENCRYPTED = 3;
+    private static final int SERVER_ENCRYPTED = 4;
+    private static final int SERVER_SEED_ENCRYPTED = 5;
+    private static final int ENCRYPTED_BLOCKS = 6;
+    private static final int FLAGS = 80;
+    static final int HEADER_LENGTH = 88;
+
+    static final int FINGERPRINT_LENGTH = 20;
+    private static final int HAS_BACKUP = 1;
+    private static final int HAS_SERVER = 2;
+
+    private static final int ITER = 0;
+    private static final int KS = 8;
+    private static final int BS = 12;
+    private static final int SL = 16;
+    private static final int R = 20;
+    private static final int P = 24;
+    private static final int CIPHER_LENGTH = 28;
+    private static final int MODE_LENGTH = 29;
+    private static final int IV_LENGTH = 30;
+    private static final int SALT_LENGTH = 31;
+    private static final int DATA_LENGTH = 32;
+    private static final int ENCRYPTED_HEADER_LENGTH = 36;
+
+    private static final int ALIGNMENT = 8;
+
+    private final ByteBuffer buffer;
+    private final int base;
+
+    /**
+     * @param buffer mapped segment, only read with absolute gets
+     * @param base record position in the segment
+     */
+    KeyStoreRecord(ByteBuffer buffer, int base) {
+        this.buffer = buffer;
+        this.base = base;
+    }
+
+    public String getWalletName() {
+        return new String(bytes(HEADER_LENGTH, nameLength()), StandardCharsets.UTF_8);
+    }
+
+    public byte[] getFingerprint() {
+        return bytes(FINGERPRINT, FINGERPRINT_LENGTH);
+    }
+
+    public long getCreated() {
+        return buffer.getLong(base + CREATED);
+    }
+
+    public byte[] getPub() {
+        return bytes(pubOffset(), pubLength());
+    }
+
+    /**
+     * Public key without copying it
+     *
+     * @return read-only view of the mapping
+     */
+    public ByteBuffer pub() {
+        return view(pubOffset(), pubLength());
+    }
+
+    public EncryptedData getEncrypted() {
+        return encryptedData(KEY_ENCRYPTED);
+    }
+
+    public EncryptedData getSeedEncrypted() {
+        return encryptedData(KEY_SEED_ENCRYPTED);
+    }
+
+    /**
+     * Cipher text of the encrypted account key without copying it, e.g. to decrypt it with AESCBCEngine
+     *
+     * @return read-only view of the mapping, null if there is no encrypted data
+     */
+    public ByteBuffer encryptedCipherText() {
+        if (encryptedLength(KEY_ENCRYPTED) == 0) {
+            return null;
+        }
+        int offset = encryptedOffset(KEY_ENCRYPTED);
+        int dataOffset = offset + ENCRYPTED_HEADER_LENGTH + unsignedByte(offset + CIPHER_LENGTH)
+                + unsignedByte(offset + MODE_LENGTH) + unsignedByte(offset + IV_LENGTH) + unsignedByte(offset + SALT_LENGTH);
+        return view(dataOffset, buffer.getInt(base + offset + DATA_LENGTH));
+    }
+
+    public DeterministicKeyChainEntity getKey() {
+        return new DeterministicKeyChainEntity(getPub(), getCreated(), getEncrypted(), getSeedEncrypted());
+    }
+
+    /**
+     * @return null if the wallet has no backup key
+     */
+    public DeterministicKeyChainEntity getBackup() {
+        if ((buffer.get(base + FLAGS) & HAS_BACKUP) == 0) {
+            return null;
+        }
+        return new DeterministicKeyChainEntity(bytes(backupPubOffset(), unsignedShort(BACKUP_PUB_LENGTH)),
+                buffer.getLong(base + BACKUP_CREATED), encryptedData(BACKUP_ENCRYPTED),
+                encryptedData(BACKUP_SEED_ENCRYPTED));
+    }
+
+    /**
+     * Server key of a provisioned wallet, the one a signing service signs with
+     *
+     * @return null if the wallet has no server key
+     */
+    public DeterministicKeyChainEntity getServer() {
+        if ((buffer.get(base + FLAGS) & HAS_SERVER) == 0) {
+            return null;
+        }
+        return new DeterministicKeyChainEntity(bytes(serverPubOffset(), unsignedShort(SERVER_PUB_LENGTH)),
+                buffer.getLong(base + SERVER_CREATED), encryptedData(SERVER_ENCRYPTED),
+                encryptedData(SERVER_SEED_ENCRYPTED));
+    }
+
+    public WalletEntity toWalletEntity() {
+        return new WalletEntity(getWalletName(), getKey(), getBackup(), getServer());
+    }
+
+    boolean nameEquals(byte[] name) {
+        return nameLength() == name.length && regionEquals(HEADER_LENGTH, name);
+    }
+
+    boolean fingerprintEquals(byte[] fingerprint) {
+        return regionEquals(FINGERPRINT, fingerprint);
+    }
+
+    /**
+     * Serialize a wallet as a record, every key with its encrypted data
+     *
+     * @param walletEntity
+     * @param fingerprint of the account key
+     * @param generation
+     * @return the record without its marker, written last by the store, its length a multiple of 8 bytes
+     */
+    static ByteBuffer encode(WalletEntity walletEntity, byte[] fingerprint, int generation) {
+
+        DeterministicKeyChainEntity key = walletEntity.getKey();
+        DeterministicKeyChainEntity backup = walletEntity.getBackup();
+        DeterministicKeyChainEntity server = walletEntity.getServer();
+        byte[] name = walletEntity.getWalletName().getBytes(StandardCharsets.UTF_8);
+        byte[] backupPub = backup != null ? backup.getPub() : new byte[0];
+        byte[] serverPub = server != null ? server.getPub() : new byte[0];
+        EncryptedData[] encrypted = {
+                key.getEncrypted(), key.getSeedEncrypted(),
+                backup != null ? backup.getEncrypted() : null, backup != null ? backup.getSeedEncrypted() : null,
+                server != null ? server.getEncrypted() : null, server != null ? server.getSeedEncrypted() : null};
+
+        int length = HEADER_LENGTH + checkShort(name.length) + checkShort(key.getPub().length)
+                + checkShort(backupPub.length) + checkShort(serverPub.length);
+        for (EncryptedData encryptedData : encrypted) {
+            length += checkShort(encryptedDataLength(encryptedData));
+        }
+        length = (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(LENGTH, length);
+        record.putInt(GENERATION, generation);
+        record.putLong(CREATED, key.getCreated());
+        record.putLong(BACKUP_CREATED, backup != null ? backup.getCreated() : 0);
+        record.putLong(SERVER_CREATED, server != null ? server.getCreated() : 0);
+        record.position(FINGERPRINT);
+        record.put(fingerprint);
+        record.putShort(NAME_LENGTH, (short) name.length);
+        record.putShort(PUB_LENGTH, (short) key.getPub().length);
+        record.putShort(BACKUP_PUB_LENGTH, (short) backupPub.length);
+        record.putShort(SERVER_PUB_LENGTH, (short) serverPub.length);
+        for (int i = 0; i < ENCRYPTED_BLOCKS; i++) {
+            record.putShort(ENCRYPTED_LENGTH + 2 * i, (short) encryptedDataLength(encrypted[i]));
+        }
+        record.put(FLAGS, (byte) ((backup != null ? HAS_BACKUP : 0) | (server != null ? HAS_SERVER : 0)));
+
+        record.position(HEADER_LENGTH);
+        record.put(name).put(key.getPub()).put(backupPub).put(serverPub);
+        for (EncryptedData encryptedData : encrypted) {
+            putEncryptedData(record, encryptedData);
+        }
+
+        record.putInt(CRC, crc(record, 0, length));
+        record.clear();
+
+        return record;
+    }
+
+    /**
+     * crc32 of the record at base, covering everything after the crc
+     */
+    static int crc(ByteBuffer buffer, int base, int length) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(base + length).position(base + GENERATION);
+
+        CRC32 crc = new CRC32();
+        crc.update(region);
+        return (int) crc.getValue();
+    }
+
+    private static int encryptedDataLength(EncryptedData encryptedData) {
+        if (encryptedData == null) {
+            return 0;
+        }
+        return ENCRYPTED_HEADER_LENGTH + checkByte(encryptedData.getCipher().getBytes(StandardCharsets.UTF_8).length)
+                + checkByte(encryptedData.getMode().getBytes(StandardCharsets.UTF_8).length)
+                + checkByte(encryptedData.getIv().length) + checkByte(encryptedData.getSalt().length)
+                + encryptedData.getData().length;
+    }
+
+    private static void putEncryptedData(ByteBuffer record, EncryptedData encryptedData) {
+        if (encryptedData == null) {
+            return;
+        }
+
+        byte[] cipher = encryptedData.getCipher().getBytes(StandardCharsets.UTF_8);
+        byte[] mode = encryptedData.getMode().getBytes(StandardCharsets.UTF_8);
+
+        record.putLong(encryptedData.getIter());
+        record.putInt(encryptedData.getKs());
+        record.putInt(encryptedData.getBs());
+        record.putInt(encryptedData.getSl());
+        record.putInt(encryptedData.getR());
+        record.putInt(encryptedData.getP());
+        record.put((byte) cipher.length);
+        record.put((byte) mode.length);
+        record.put((byte) encryptedData.getIv().length);
+        record.put((byte) encryptedData.getSalt().length);
+        record.putInt(encryptedData.getData().length);
+        record.put(cipher).put(mode).put(encryptedData.getIv()).put(encryptedData.getSalt()).put(encryptedData.getData());
+    }
+
+    private EncryptedData encryptedData(int block) {
+        if (encryptedLength(block) == 0) {
+            return null;
+        }
+
+        int offset = encryptedOffset(block);
+
+        int cipherLength = unsignedByte(offset + CIPHER_LENGTH);
+        int modeLength = unsignedByte(offset + MODE_LENGTH);
+        int ivLength = unsignedByte(offset + IV_LENGTH);
+        int saltLength = unsignedByte(offset + SALT_LENGTH);
+        int dataLength = buffer.getInt(base + offset + DATA_LENGTH);
+
+        int position = offset + ENCRYPTED_HEADER_LENGTH;
+        String cipher = new String(bytes(position, cipherLength), StandardCharsets.UTF_8);
+        position += cipherLength;
+        String mode = new String(bytes(position, modeLength), StandardCharsets.UTF_8);
+        position += modeLength;
+        byte[] iv = bytes(position, ivLength);
+        position += ivLength;
+        byte[] salt = bytes(position, saltLength);
+        position += saltLength;
+        byte[] data = bytes(position, dataLength);
+
+        EncryptedData encryptedData = new EncryptedData(iv, buffer.getLong(base + offset + ITER), cipher,
+                buffer.getInt(base + offset + KS), mode, buffer.getInt(base + offset + BS), salt,
+                buffer.getInt(base + offset + SL), data);
+        encryptedData.setR(buffer.getInt(base + offset + R));
+        encryptedData.setP(buffer.getInt(base + offset + P));
+
+        return encryptedData;
+    }
+
+    private int nameLength() {
+        return unsignedShort(NAME_LENGTH);
+    }
+
+    private int pubLength() {
+        return unsignedShort(PUB_LENGTH);
+    }
+
+    private int pubOffset() {
+        return HEADER_LENGTH + nameLength();
+    }
+
+    private int backupPubOffset() {
+        return pubOffset() + pubLength();
+    }
+
+    private int serverPubOffset() {
+        return backupPubOffset() + unsignedShort(BACKUP_PUB_LENGTH);
+    }
+
+    private int encryptedLength(int block) {
+        return unsignedShort(ENCRYPTED_LENGTH + 2 * block);
+    }
+
+    /**
+     * Offset of an encrypted data block, after the public keys and the blocks before it
+     */
+    private int encryptedOffset(int block) {
+        int offset = serverPubOffset() + unsignedShort(SERVER_PUB_LENGTH);
+        for (int i = 0; i < block; i++) {
+            offset += encryptedLength(i);
+        }
+        return offset;
+    }
+
+    private int unsignedShort(int offset) {
+        return buffer.getShort(base + offset) & 0xffff;
+    }
+
+    private int unsignedByte(int offset) {
+        return buffer.get(base + offset) & 0xff;
+    }
+
+    private byte[] bytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(base + offset);
+        source.get(bytes);
+        return bytes;
+    }
+
+    private boolean regionEquals(int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(base + offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer view(int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(base + offset + length).position(base + offset);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    private static int checkShort(int length) {
+        checkArgument(length <= 0xffff, "field of " + length + " bytes too long for a keystore record");
+        return length;
+    }
+
+    private static int checkByte(int length) {
+        checkArgument(length <= 0xff, "field of " + length + " bytes too long for a keystore record");
+        return length;
+    }
+}
@@ -0,0 +1,400 @@
+package utils.keystore;
+
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
+import domain.WalletEntity;
+import org.bitcoinj.core.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A single file keystore of wallets, memory mapped, for millions of wallets.
+ *
+ * Wallets are appended as KeyStoreRecord and found in O(1) by wallet name or by the fingerprint of their account key
+ * (hash160 of pub) through two open addressing indexes kept in the same file, without scanning or parsing anything.
+ * Lookups return views of the mapping and can run on any thread while one thread appends.
+ *
+ * File layout: a page of header, the name index, the fingerprint index and the records in segments of
+ * SEGMENT_LENGTH bytes. Segments are mapped and grown GROWTH_LENGTH bytes at a time, so the file grows with its
+ * records instead of a whole segment at once. A record is only valid with its commit marker and crc. The header is marked dirty while
+ * the store is open, so after a crash both indexes are rebuilt from the valid records on the next open.
+ */
+public class MappedKeyStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedKeyStore.class);
+
+    private static final int MAGIC = 0x424a4b53; // BJKS
+    /* 2: records with the server key and the encrypted data of the backup key */
+    public static final int VERSION = 2;
+    private static final int PAGE_LENGTH = 4096;
+    static final int SEGMENT_LENGTH = 1 << 30;
+    private static final int GROWTH_LENGTH = 16 << 20;
+
+    /* header */
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_DIRTY = 8;
+    private static final int H_CAPACITY = 12;
+    private static final int H_GENERATION = 16;
+    private static final int H_COUNT = 24;
+    private static final int H_DATA_END = 32;
+
+    private static final int COMMITTED = 0x4b455931; // KEY1
+    private static final int PADDING = 0x50414430; // PAD0
+
+    private static final double MAX_LOAD = 0.7;
+    private static final int MIN_CAPACITY = 1 << 8;
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer nameTable;
+    private final MappedByteBuffer fingerprintTable;
+    private final OpenAddressingIndex nameIndex;
+    private final OpenAddressingIndex fingerprintIndex;
+    private final long dataStart;
+    private final long maxRecords;
+    private final int generation;
+
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile long count;
+    private long dataEnd;
+
+    /**
+     * Open the keystore or create it if the file does not exist
+     *
+     * @param file
+     * @param expectedRecords records the indexes are sized for when the file is created, ignored on open
+     * @throws IOException
+     */
+    public MappedKeyStore(File file, long expectedRecords) throws IOException {
+        checkNotNull(file);
+
+        boolean exists = file.exists() && file.length() > 0;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, PAGE_LENGTH);
+
+        if (!exists) {
+            checkArgument(expectedRecords > 0, "expectedRecords must be positive");
+            header.putInt(H_MAGIC, MAGIC);
+            header.putInt(H_VERSION, VERSION);
+            header.putInt(H_CAPACITY, capacityFor(expectedRecords));
+        } else if (header.getInt(H_MAGIC) != MAGIC) {
+            channel.close();
+            throw new IOException(file + " is not a keystore");
+        } else if (header.getInt(H_VERSION) != VERSION) {
+            channel.close();
+            throw new IOException("Unknown keystore version " + header.getInt(H_VERSION));
+        }
+
+        int capacity = header.getInt(H_CAPACITY);
+        long tableLength = (long) capacity * OpenAddressingIndex.SLOT_LENGTH;
+        nameTable = channel.map(FileChannel.MapMode.READ_WRITE, PAGE_LENGTH, tableLength);
+        fingerprintTable = channel.map(FileChannel.MapMode.READ_WRITE, PAGE_LENGTH + tableLength, tableLength);
+        nameIndex = new OpenAddressingIndex(nameTable, capacity);
+        fingerprintIndex = new OpenAddressingIndex(fingerprintTable, capacity);
+        dataStart = PAGE_LENGTH + 2 * tableLength;
+        maxRecords = (long) (capacity * MAX_LOAD);
+
+        boolean crashed = header.getInt(H_DIRTY) != 0;
+        /* a new generation after every unclean close, records of an older one can not follow newer ones */
+        generation = header.getInt(H_GENERATION) + (crashed ? 1 : 0);
+        header.putInt(H_GENERATION, generation);
+        header.putInt(H_DIRTY, 1);
+        header.force();
+
+        if (crashed) {
+            rebuild();
+        } else {
+            count = header.getLong(H_COUNT);
+            dataEnd = header.getLong(H_DATA_END);
+        }
+    }
+
+    /**
+     * Fingerprint of an account key, its hash160
+     *
+     * @param pub serialized public account key
+     * @return
+     */
+    public static byte[] fingerprint(byte[] pub) {
+        return Utils.sha256hash160(pub);
+    }
+
+    /**
+     * Append a wallet, it is found by name and fingerprint as soon as this returns and durable after flush
+     *
+     * @param walletEntity with name and key, stored with its backup and server keys and all their encrypted data
+     * @throws IllegalArgumentException if there is a wallet with the same name or account key
+     * @throws IllegalStateException if the indexes are full
+     */
+    public synchronized void put(WalletEntity walletEntity) {
+        checkNotNull(walletEntity);
+        checkNotNull(walletEntity.getWalletName(), "wallet name");
+        checkNotNull(walletEntity.getKey(), "wallet key");
+        checkState(count < maxRecords, "keystore is full, it was sized for %s records", maxRecords);
+
+        byte[] name = walletEntity.getWalletName().getBytes(StandardCharsets.UTF_8);
+        byte[] fingerprint = fingerprint(walletEntity.getKey().getPub());
+        checkArgument(find(name) < 0, "there is a wallet named %s", walletEntity.getWalletName());
+        checkArgument(findByFingerprint(fingerprint) < 0, "the account key of %s is in another wallet",
+                walletEntity.getWalletName());
+
+        ByteBuffer record = KeyStoreRecord.encode(walletEntity, fingerprint, generation);
+        int length = record.remaining();
+        checkArgument(length <= SEGMENT_LENGTH, "record too long");
+
+        /* records do not cross segments */
+        long offset = dataEnd;
+        int remaining = SEGMENT_LENGTH - position(offset);
+        if (remaining < length) {
+            if (remaining >= KeyStoreRecord.HEADER_LENGTH) {
+                ByteBuffer segment = segment(offset, position(offset) + KeyStoreRecord.HEADER_LENGTH);
+                segment.putInt(position(offset) + KeyStoreRecord.LENGTH, remaining);
+                segment.putInt(position(offset) + KeyStoreRecord.MARKER, PADDING);
+            }
+            offset += remaining;
+        }
+        checkState(offset + length <= OpenAddressingIndex.MAX_OFFSET, "keystore is full");
+
+        /* the record and the terminator after it */
+        ByteBuffer segment = segment(offset,
+                Math.min(SEGMENT_LENGTH, position(offset) + length + KeyStoreRecord.HEADER_LENGTH));
+        ByteBuffer target = segment.duplicate();
+        target.position(position(offset));
+        target.put(record);
+        /* the marker goes last, a record without it is discarded by a rebuild */
+        segment.putInt(position(offset) + KeyStoreRecord.MARKER, COMMITTED);
+        /* terminate the data, in case the following bytes are left from a discarded record */
+        if (SEGMENT_LENGTH - position(offset) - length >= KeyStoreRecord.HEADER_LENGTH) {
+            segment.putInt(position(offset) + length + KeyStoreRecord.LENGTH, 0);
+        }
+
+        nameIndex.put(hash(name), offset);
+        fingerprintIndex.put(Ints.fromByteArray(fingerprint), offset);
+
+        dataEnd = offset + length;
+        header.putLong(H_DATA_END, dataEnd);
+        header.putLong(H_COUNT, count + 1);
+        /* publishes the record and index slots to readers */
+        count = count + 1;
+    }
+
+    /**
+     * Wallet by name
+     *
+     * @param walletName
+     * @return null if there is none
+     */
+    public KeyStoreRecord get(String walletName) {
+        checkNotNull(walletName);
+        long offset = find(walletName.getBytes(StandardCharsets.UTF_8));
+        return offset < 0 ? null : record(offset);
+    }
+
+    /**
+     * Wallet by the fingerprint of its account key
+     *
+     * @param fingerprint hash160 of the account key
+     * @return null if there is none
+     */
+    public KeyStoreRecord getByFingerprint(byte[] fingerprint) {
+        checkNotNull(fingerprint);
+        checkArgument(fingerprint.length == KeyStoreRecord.FINGERPRINT_LENGTH, "fingerprint must be 20 bytes");
+        long offset = findByFingerprint(fingerprint);
+        return offset < 0 ? null : record(offset);
+    }
+
+    /**
+     * Wallet by its account key
+     *
+     * @param pub serialized public account key
+     * @return null if there is none
+     */
+    public KeyStoreRecord getByPub(byte[] pub) {
+        checkNotNull(pub);
+        return getByFingerprint(fingerprint(pub));
+    }
+
+    /**
+     * Number of wallets
+     *
+     * @return
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Force records, indexes and header to disk
+     */
+    public synchronized void flush() {
+        for (MappedByteBuffer segment : segments) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+        nameTable.force();
+        fingerprintTable.force();
+        header.force();
+    }
+
+    /**
+     * Flush and mark the file as closed cleanly, so the next open trusts its indexes
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        header.putInt(H_DIRTY, 0);
+        header.force();
+        channel.close();
+    }
+
+    private long find(byte[] name) {
+        if (count == 0) {
+            return -1;
+        }
+        return nameIndex.find(hash(name), offset -> record(offset).nameEquals(name));
+    }
+
+    private long findByFingerprint(byte[] fingerprint) {
+        if (count == 0) {
+            return -1;
+        }
+        return fingerprintIndex.find(Ints.fromByteArray(fingerprint), offset -> record(offset).fingerprintEquals(fingerprint));
+    }
+
+    private KeyStoreRecord record(long offset) {
+        return new KeyStoreRecord(segment(offset, position(offset) + KeyStoreRecord.HEADER_LENGTH), position(offset));
+    }
+
+    /**
+     * Scan the records from the start of the data, keep the valid ones and index them again
+     */
+    private void rebuild() throws IOException {
+
+        long start = System.currentTimeMillis();
+        log.info("Keystore was not closed cleanly, rebuilding its indexes");
+
+        nameIndex.clear();
+        fingerprintIndex.clear();
+
+        long dataLength = channel.size() - dataStart;
+        long offset = 0;
+        long records = 0;
+        int lastGeneration = 0;
+
+        while (offset < dataLength) {
+            int position = position(offset);
+            int remaining = SEGMENT_LENGTH - position;
+            if (remaining < KeyStoreRecord.HEADER_LENGTH) {
+                offset += remaining;
+                continue;
+            }
+
+            ByteBuffer segment = segment(offset, position + KeyStoreRecord.HEADER_LENGTH);
+            int length = segment.getInt(position + KeyStoreRecord.LENGTH);
+            int marker = segment.getInt(position + KeyStoreRecord.MARKER);
+            if (marker == PADDING && length == remaining) {
+                offset += remaining;
+                continue;
+            }
+            if (marker != COMMITTED || length < KeyStoreRecord.HEADER_LENGTH || length > remaining
+                    || length > segment.capacity() - position
+                    || segment.getInt(position + KeyStoreRecord.CRC) != KeyStoreRecord.crc(segment, position, length)) {
+                break;
+            }
+            int recordGeneration = segment.getInt(position + KeyStoreRecord.GENERATION);
+            if (recordGeneration < lastGeneration) {
+                break;
+            }
+            lastGeneration = recordGeneration;
+
+            KeyStoreRecord record = new KeyStoreRecord(segment, position);
+            nameIndex.put(hash(record.getWalletName().getBytes(StandardCharsets.UTF_8)), offset);
+            fingerprintIndex.put(Ints.fromByteArray(record.getFingerprint()), offset);
+            records++;
+            offset += length;
+        }
+
+        /* discards the rest, e.g. a record half written */
+        if (offset < dataLength && SEGMENT_LENGTH - position(offset) >= KeyStoreRecord.HEADER_LENGTH) {
+            ByteBuffer segment = segment(offset, position(offset) + KeyStoreRecord.HEADER_LENGTH);
+            segment.putInt(position(offset) + KeyStoreRecord.LENGTH, 0);
+            segment.putInt(position(offset) + KeyStoreRecord.MARKER, 0);
+        }
+
+        count = records;
+        dataEnd = offset;
+        header.putLong(H_COUNT, count);
+        header.putLong(H_DATA_END, dataEnd);
+        flush();
+
+        log.info("Rebuilt keystore indexes of {} records in {} ms", records, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Mapped segment of an offset covering at least end bytes from its start, mapped the first time and grown in
+     * steps of GROWTH_LENGTH. Records already read keep the mapping they were read from.
+     */
+    private ByteBuffer segment(long offset, int end) {
+        int index = (int) (offset / SEGMENT_LENGTH);
+        MappedByteBuffer[] mapped = segments;
+        if (index < mapped.length && mapped[index] != null && mapped[index].capacity() >= end) {
+            return mapped[index];
+        }
+
+        synchronized (this) {
+            mapped = segments;
+            if (index < mapped.length && mapped[index] != null && mapped[index].capacity() >= end) {
+                return mapped[index];
+            }
+            long start = dataStart + (long) index * SEGMENT_LENGTH;
+            try {
+                /* what the file already has of the segment, or up to end, rounded up to the next step */
+                long length = Math.max(end, Math.min(channel.size() - start, SEGMENT_LENGTH));
+                length = Math.min(SEGMENT_LENGTH, (length + GROWTH_LENGTH - 1) / GROWTH_LENGTH * GROWTH_LENGTH);
+                mapped = Arrays.copyOf(mapped, Math.max(mapped.length, index + 1));
+                mapped[index] = channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+            } catch (IOException e) {
+                throw new IllegalStateException("Can not map keystore segment " + index, e);
+            }
+            segments = mapped;
+            return mapped[index];
+        }
+    }
+
+    private static int position(long offset) {
+        return (int) (offset % SEGMENT_LENGTH);
+    }
+
+    private static int hash(byte[] name) {
+        return Hashing.murmur3_32().hashBytes(name).asInt();
+    }
+
+    private static int capacityFor(long expectedRecords) {
+        long capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedRecords) {
+            capacity <<= 1;
+        }
+        checkArgument(capacity <= MAX_CAPACITY, "at most %s records", (long) (MAX_CAPACITY * MAX_LOAD));
+        return (int) capacity;
+    }
+}
@@ -0,0 +1,86 @@
+package utils.keystore;
+
+import java.nio.ByteBuffer;
+import java.util.function.LongPredicate;
+
+/**
+ * A hash index of record offsets with linear probing over a mapped table of 8 byte slots.
+ *
+ * A slot holds 24 bits of the hash, to skip most non matching records without reading them, and the record
+ * offset plus one, so a zero slot is empty. Entries are never removed.
+ */
+class OpenAddressingIndex {
+
+    static final int SLOT_LENGTH = 8;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    static final long MAX_OFFSET = OFFSET_MASK - 1;
+
+    private final ByteBuffer table;
+    private final int mask;
+
+    /**
+     * @param table capacity * SLOT_LENGTH bytes
+     * @param capacity a power of two
+     */
+    OpenAddressingIndex(ByteBuffer table, int capacity) {
+        this.table = table;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Offset of the first record with this hash accepted by matches
+     *
+     * @param hash
+     * @param matches tells if the record at an offset is the one looked up
+     * @return offset or -1 if there is none
+     */
+    long find(int hash, LongPredicate matches) {
+        int mixed = mix(hash);
+        long tag = tag(mixed);
+        for (int i = mixed & mask; ; i = (i + 1) & mask) {
+            long slot = table.getLong(i * SLOT_LENGTH);
+            if (slot == 0) {
+                return -1;
+            }
+            if ((slot & ~OFFSET_MASK) == tag && matches.test((slot & OFFSET_MASK) - 1)) {
+                return (slot & OFFSET_MASK) - 1;
+            }
+        }
+    }
+
+    /**
+     * Add an offset, the caller keeps the table below its capacity
+     *
+     * @param hash
+     * @param offset
+     */
+    void put(int hash, long offset) {
+        int mixed = mix(hash);
+        int i = mixed & mask;
+        while (table.getLong(i * SLOT_LENGTH) != 0) {
+            i = (i + 1) & mask;
+        }
+        table.putLong(i * SLOT_LENGTH, tag(mixed) | (offset + 1));
+    }
+
+    void clear() {
+        for (int i = 0; i <= mask; i++) {
+            table.putLong(i * SLOT_LENGTH, 0);
+        }
+    }
+
+    private static long tag(int mixed) {
+        return (long) (mixed >>> 8) << OFFSET_BITS;
+    }
+
+    /* murmur3 finalizer */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
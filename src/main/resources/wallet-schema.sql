@@ -0,0 +1,38 @@
+-- Wallets, account keys and their encrypted data, for PostgreSQL and H2.
+-- Keys are identified by their fingerprint, the hash160 of pub, computed by the client so rows are batched
+-- without reading generated ids back.
+
+CREATE TABLE IF NOT EXISTS key_chain (
+    fingerprint BYTEA NOT NULL PRIMARY KEY,
+    pub BYTEA NOT NULL,
+    created BIGINT NOT NULL
+);
+
+-- kind 0 is the encrypted account key, 1 the encrypted seed
+CREATE TABLE IF NOT EXISTS encrypted_data (
+    fingerprint BYTEA NOT NULL REFERENCES key_chain (fingerprint),
+    kind SMALLINT NOT NULL,
+    iv BYTEA NOT NULL,
+    iter BIGINT NOT NULL,
+    cipher VARCHAR(32) NOT NULL,
+    ks INTEGER NOT NULL,
+    mode VARCHAR(32) NOT NULL,
+    bs INTEGER NOT NULL,
+    salt BYTEA NOT NULL,
+    sl INTEGER NOT NULL,
+    data BYTEA NOT NULL,
+    r INTEGER NOT NULL,
+    p INTEGER NOT NULL,
+    PRIMARY KEY (fingerprint, kind)
+);
+
+CREATE TABLE IF NOT EXISTS wallet (
+    name VARCHAR(255) NOT NULL PRIMARY KEY,
+    key_fingerprint BYTEA NOT NULL REFERENCES key_chain (fingerprint),
+    backup_fingerprint BYTEA REFERENCES key_chain (fingerprint),
+    -- server key of wallets provisioned by BulkCreateHDKeys
+    server_fingerprint BYTEA REFERENCES key_chain (fingerprint)
+);
+
+-- tables created before the server key get the column without its foreign key, H2 does not add both at once
+ALTER TABLE wallet ADD COLUMN IF NOT EXISTS server_fingerprint BYTEA;